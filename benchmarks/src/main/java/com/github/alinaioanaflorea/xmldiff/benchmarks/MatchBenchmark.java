@@ -0,0 +1,105 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff.benchmarks;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.alinaioanaflorea.xmldiff.MatchXml;
+import com.github.alinaioanaflorea.xmldiff.Tag;
+
+/**
+ * This class measures the diff of two loaded xml files, with MatchXml.GetTagDiff.
+ * The wide level benchmark diffs a single level of many siblings with the same name, where most of the time is spent ordering and choosing their matches in matchTags.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchBenchmark
+{
+    /**
+     * The Tags of the workload, loaded once.
+     */
+    @State(Scope.Benchmark)
+    public static class LoadedWorkload extends XmlWorkload
+    {
+        MatchXml matchXml;
+        List<Tag> tags1;
+        List<Tag> tags2;
+
+        /**
+         * Load the files of the workload.
+         *
+         * @throws Exception
+         */
+        @Override
+        protected void prepare () throws Exception
+        {
+            matchXml = new MatchXml(); // Loads both files, so that they share the same tag names
+            tags1 = matchXml.getTags(oldFile.getPath());
+            tags2 = matchXml.getTags(newFile.getPath());
+        }
+    }
+
+    /**
+     * A level of siblings with the same name, loaded once. The width, depth and nameCardinality parameters are not used.
+     */
+    @State(Scope.Benchmark)
+    public static class WideLevel extends LoadedWorkload
+    {
+        @Param({"1000"})
+        public int nrOfSiblings;
+
+        @Override
+        protected XmlGenerator newGenerator ()
+        {
+            return new XmlGenerator(nrOfSiblings, 1, 1, duplicateRatio, mutationRate, seed);
+        }
+    }
+
+    /**
+     * Diff the files of the workload.
+     *
+     * @param workload the loaded files
+     * @return the difference
+     */
+    @Benchmark
+    public List<Tag> getTagDiff (LoadedWorkload workload)
+    {
+        return workload.matchXml.GetTagDiff(workload.tags1, workload.tags2, new ArrayList<Tag>());
+    }
+
+    /**
+     * Diff a level of siblings with the same name.
+     *
+     * @param workload the loaded level
+     * @return the difference
+     */
+    @Benchmark
+    public List<Tag> matchTags (WideLevel workload)
+    {
+        return workload.matchXml.GetTagDiff(workload.tags1, workload.tags2, new ArrayList<Tag>());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff.benchmarks;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.io.Writer;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.alinaioanaflorea.xmldiff.MatchXml;
+import com.github.alinaioanaflorea.xmldiff.Tag;
+
+/**
+ * This class measures the printing of the difference of two xml files, with ProcessXml.print, to a Writer which only counts the written characters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrintBenchmark extends XmlWorkload
+{
+    private MatchXml matchXml;
+    private List<Tag> tagDiff;
+
+    /**
+     * Diff the files of the workload once.
+     *
+     * @throws Exception
+     */
+    @Override
+    protected void prepare () throws Exception
+    {
+        matchXml = new MatchXml();
+        tagDiff = matchXml.GetTagDiff(matchXml.getTags(oldFile.getPath()), matchXml.getTags(newFile.getPath()), new ArrayList<Tag>());
+    }
+
+    /**
+     * Print the difference.
+     *
+     * @return the number of printed characters
+     * @throws IOException
+     */
+    @Benchmark
+    public long print () throws IOException
+    {
+        CountingWriter out = new CountingWriter();
+        matchXml.print(tagDiff, out);
+
+        return out.nrOfChars;
+    }
+
+    /**
+     * A Writer which only counts the written characters.
+     */
+    private static class CountingWriter extends Writer
+    {
+        long nrOfChars = 0;
+
+        @Override
+        public void write (char[] buffer, int offset, int length)
+        {
+            nrOfChars += length;
+        }
+
+        @Override
+        public void write (String value, int offset, int length)
+        {
+            nrOfChars += length;
+        }
+
+        @Override
+        public void flush ()
+        {
+        }
+
+        @Override
+        public void close ()
+        {
+        }
+    }
+}
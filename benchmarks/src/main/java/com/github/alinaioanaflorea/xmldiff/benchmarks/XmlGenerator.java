@@ -0,0 +1,254 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff.benchmarks;
+
+import java.util.Random;
+import java.io.File;
+import java.io.Writer;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * This class generates a pair of xml files, an old one and a new one, from a seed, so that the same seed always gives the same files.
+ * The old file is a tree of tags with the given width (child tags of each tag) and depth, with names chosen from nameCardinality names.
+ * With the probability duplicateRatio a tag is a copy of its previous sibling, so that the files have repeated subtrees.
+ * The new file is the old one with the probability mutationRate, for each tag, of having its value changed, of being deleted, or of having a new sibling inserted after it.
+ */
+public class XmlGenerator
+{
+    private static final int NR_OF_VALUES = 100000;
+    private static final int MAX_NR_OF_ATTRIBUTES = 3;
+
+    /**
+     * The mutations of a tag in the new file.
+     */
+    private static final int NONE = 0;
+    private static final int CHANGE = 1;
+    private static final int DELETE = 2;
+    private static final int INSERT = 3;
+
+    private final int width;
+    private final int depth;
+    private final int nameCardinality;
+    private final double duplicateRatio;
+    private final double mutationRate;
+    private final long seed;
+
+    /**
+     * The random mutations of the new file, drawn in the order of its tags. Null while the old file is written.
+     */
+    private Random mutations;
+
+    /**
+     * Constructor: set the shape of the generated files.
+     *
+     * @param width the number of child tags of each tag, except the leaf tags
+     * @param depth the number of levels of tags under the root tag
+     * @param nameCardinality the number of different tag names
+     * @param duplicateRatio the probability of a tag being a copy of its previous sibling
+     * @param mutationRate the probability of a tag being changed in the new file
+     * @param seed the seed of the generated files
+     */
+    public XmlGenerator (int width, int depth, int nameCardinality, double duplicateRatio, double mutationRate, long seed)
+    {
+        if (width < 1 || depth < 1 || nameCardinality < 1)
+        {
+            throw new IllegalArgumentException("The width, depth and number of names must be at least 1");
+        }
+
+        this.width = width;
+        this.depth = depth;
+        this.nameCardinality = nameCardinality;
+        this.duplicateRatio = duplicateRatio;
+        this.mutationRate = mutationRate;
+        this.seed = seed;
+    }
+
+    /**
+     * Write the old file.
+     *
+     * @param file the file to write to
+     * @throws IOException
+     */
+    public void writeOld (File file) throws IOException
+    {
+        write(file, null);
+    }
+
+    /**
+     * Write the new file: the old file with its mutations.
+     *
+     * @param file the file to write to
+     * @throws IOException
+     */
+    public void writeNew (File file) throws IOException
+    {
+        write(file, new Random(seed * 31 + 17));
+    }
+
+    /**
+     * Write a file.
+     *
+     * @param file the file to write to
+     * @param mutations the random mutations of the new file, or null for the old file
+     * @throws IOException
+     */
+    private void write (File file, Random mutations) throws IOException
+    {
+        this.mutations = mutations;
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF8"));
+        try
+        {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root>\n");
+
+            Random random = new Random(seed);
+            writeChildTags(out, random, 1, "  ");
+
+            out.write("</root>\n");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the child tags of a tag. Each child tag is generated from its own seed, and a duplicated tag reuses the seed of its previous sibling.
+     *
+     * @param out the file
+     * @param random the random content of the parent tag
+     * @param level the level of the child tags
+     * @param indent the indentation of the child tags
+     * @throws IOException
+     */
+    private void writeChildTags (Writer out, Random random, int level, String indent) throws IOException
+    {
+        long previousSeed = 0;
+
+        for (int i = 0; i < width; i++)
+        {
+            // Both numbers are always drawn, so that the old and the new file have the same tags
+            boolean isDuplicate = random.nextDouble() < duplicateRatio;
+            long tagSeed = random.nextLong();
+
+            if (i > 0 && isDuplicate)
+            {
+                tagSeed = previousSeed;
+            }
+            previousSeed = tagSeed;
+
+            int mutation = getMutation();
+            if (mutation != DELETE)
+            {
+                writeTag(out, tagSeed, level, indent, mutation == CHANGE);
+            }
+            if (mutation == INSERT)
+            {
+                writeTag(out, mutations.nextLong(), level, indent, false);
+            }
+        }
+    }
+
+    /**
+     * Get the mutation of the next tag.
+     *
+     * @return NONE, CHANGE, DELETE or INSERT
+     */
+    private int getMutation ()
+    {
+        if (mutations == null || mutations.nextDouble() >= mutationRate)
+        {
+            return NONE;
+        }
+
+        return CHANGE + mutations.nextInt(3);
+    }
+
+    /**
+     * Write a tag and its child tags.
+     *
+     * @param out the file
+     * @param tagSeed the seed of the tag
+     * @param level the level of the tag
+     * @param indent the indentation of the tag
+     * @param isChanged specifies if the value of the tag is changed
+     * @throws IOException
+     */
+    private void writeTag (Writer out, long tagSeed, int level, String indent, boolean isChanged) throws IOException
+    {
+        Random random = new Random(tagSeed);
+        String name = "tag" + random.nextInt(nameCardinality);
+
+        out.write(indent);
+        out.write("<");
+        out.write(name);
+
+        int nrOfAttributes = random.nextInt(MAX_NR_OF_ATTRIBUTES + 1);
+        for (int i = 0; i < nrOfAttributes; i++)
+        {
+            out.write(" attr" + i + "=\"" + random.nextInt(NR_OF_VALUES) + "\"");
+        }
+
+        String value = "value" + random.nextInt(NR_OF_VALUES) + (isChanged ? "-changed" : "");
+
+        if (level == depth)
+        {
+            out.write(">" + value + "</" + name + ">\n");
+            return;
+        }
+
+        if (isChanged)
+        {
+            out.write(" changed=\"" + value + "\"");
+        }
+        out.write(">\n");
+
+        writeChildTags(out, random, level + 1, indent + "  ");
+
+        out.write(indent + "</" + name + ">\n");
+    }
+
+    /**
+     * Entry point to the generator.
+     *
+     * @param args the old and new files to write, then the width, depth, number of names, duplicate ratio, mutation rate and seed
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 8)
+        {
+            System.out.println ("This application expects the following arguments:\n" +
+                                "- the old and the new xml files to write \n" +
+                                "- the width, depth and number of names of the tags, eg: 8 4 16 \n" +
+                                "- the duplicate ratio and the mutation rate, eg: 0.1 0.05 \n" +
+                                "- the seed, eg: 42 \n");
+
+            System.exit(1);
+        }
+
+        try
+        {
+            XmlGenerator generator = new XmlGenerator(Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+                                                      Double.parseDouble(args[5]), Double.parseDouble(args[6]), Long.parseLong(args[7]));
+
+            generator.writeOld(new File(args[0]));
+            generator.writeNew(new File(args[1]));
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
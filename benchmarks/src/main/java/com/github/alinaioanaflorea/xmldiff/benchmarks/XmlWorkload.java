@@ -0,0 +1,100 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * This class is the workload of the benchmarks: an old and a new xml file generated by XmlGenerator with the shape given by the JMH parameters.
+ * The parameters can be changed from the command line, eg: java -jar target/benchmarks.jar -p width=32 -p depth=3
+ */
+@State(Scope.Benchmark)
+public class XmlWorkload
+{
+    @Param({"8"})
+    public int width;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"16"})
+    public int nameCardinality;
+
+    @Param({"0.1"})
+    public double duplicateRatio;
+
+    @Param({"0.05"})
+    public double mutationRate;
+
+    @Param({"42"})
+    public long seed;
+
+    protected File oldFile;
+    protected File newFile;
+
+    /**
+     * Generate the files of the workload, then prepare the benchmark.
+     *
+     * @throws Exception
+     */
+    @Setup(Level.Trial)
+    public void setUp () throws Exception
+    {
+        XmlGenerator generator = newGenerator();
+
+        oldFile = File.createTempFile("xmlDiffOld", ".xml");
+        newFile = File.createTempFile("xmlDiffNew", ".xml");
+
+        generator.writeOld(oldFile);
+        generator.writeNew(newFile);
+
+        prepare();
+    }
+
+    /**
+     * Prepare the benchmark after the files were generated, eg: load them. Does nothing by default.
+     *
+     * @throws Exception
+     */
+    protected void prepare () throws Exception
+    {
+    }
+
+    /**
+     * Get the generator of the files, with the shape given by the parameters.
+     *
+     * @return the generator
+     */
+    protected XmlGenerator newGenerator ()
+    {
+        return new XmlGenerator(width, depth, nameCardinality, duplicateRatio, mutationRate, seed);
+    }
+
+    /**
+     * Delete the files of the workload.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void delete () throws IOException
+    {
+        oldFile.delete();
+        newFile.delete();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.io.File;
+
+/**
+ * This class diffs one baseline xml file with many target xml files, eg: an old.xml with its regional variants.
+ * The baseline and the mandatory tags are loaded once, with their names and fingerprints, and are shared by the diffs of the targets, which run at the same time.
+ * With -DxmlDiff.matchCacheSize the differences of the compared tags are also shared, so that the baseline tags are compared only once with the same target content.
+ * With -DxmlDiff.editScript the edit script of each target is written instead of its difference.
+ * As the baseline is loaded, -DxmlDiff.recordWindow and -DxmlDiff.memoryBudgetMB are not supported: BatchXmlDiff streams each pair, or diffs it within the budget.
+ */
+public class BaselineXmlDiff
+{
+    /**
+     * Loads the baseline and the targets, so that all of them share the same tag names.
+     */
+    private final ProcessXml loader = new ProcessXml();
+
+    private final List<Tag> baselineTags;
+    private final MandatoryTags mandatoryTags;
+
+    /**
+     * Owns the cache of the compared tags shared by the diffs.
+     */
+    private final MatchXml cacheOwner = new MatchXml();
+
+    /**
+     * Constructor: load the baseline and the mandatory tags.
+     *
+     * @param baselinePath the path to the baseline xml file, or a snapshot of it
+     * @param mandatoryTagsPath the path to the mandatoryTags.xml, or an empty string for none
+     * @throws Exception if a file can't be read, or the mandatory tags are not valid
+     */
+    public BaselineXmlDiff (String baselinePath, String mandatoryTagsPath) throws Exception
+    {
+        baselineTags = loader.getTags(baselinePath);
+        mandatoryTags = MandatoryTagsCache.get(loader, mandatoryTagsPath);
+    }
+
+    /**
+     * Get the difference between the baseline and a target. It can be called by many threads at the same time.
+     *
+     * @param targetPath the path to the target xml file
+     * @return a list with the mandatory Tags, differences and similarities between the baseline and the target
+     * @throws Exception if the target can't be read
+     */
+    public List<Tag> getTagDiff (String targetPath) throws Exception
+    {
+        List<Tag> targetTags = loader.getTags(targetPath);
+
+        MatchXml matchXml = new MatchXml();
+        matchXml.useMatchCacheOf(cacheOwner);
+
+        return matchXml.GetTagDiff(baselineTags, targetTags, mandatoryTags);
+    }
+
+    /**
+     * Diff the baseline with the targets on a pool of threads, and print the difference with each target to its output file.
+     *
+     * @param targetPaths the paths to the target xml files
+     * @param outputPaths the paths to the output files, one for each target
+     * @param nrOfThreads the number of targets diffed at the same time
+     * @return the error of each target, or null if it was diffed
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public List<Throwable> diff (List<String> targetPaths, final List<String> outputPaths, int nrOfThreads) throws InterruptedException, ExecutionException
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, nrOfThreads));
+        try
+        {
+            List<Future<Throwable>> results = new ArrayList<Future<Throwable>>();
+            for (int i = 0; i < targetPaths.size(); i++)
+            {
+                final String targetPath = targetPaths.get(i);
+                final String outputPath = outputPaths.get(i);
+
+                results.add(workers.submit(new Callable<Throwable>()
+                {
+                    public Throwable call ()
+                    {
+                        try
+                        {
+                            List<Tag> tagDiff = getTagDiff(targetPath);
+
+                            if (!XmlDiff.editScript.equals(""))
+                            {
+                                EditScript.write(baselineTags, tagDiff, XmlDiff.editScript, outputPath);
+                            }
+                            else
+                            {
+                                loader.print(tagDiff, outputPath);
+                            }
+                            return null;
+                        }
+                        catch (Throwable e)
+                        {
+                            return e;
+                        }
+                    }
+                }));
+            }
+
+            List<Throwable> errors = new ArrayList<Throwable>();
+            for (Future<Throwable> result : results)
+            {
+                errors.add(result.get());
+            }
+
+            return errors;
+        }
+        finally
+        {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Entry point to the one-to-many mode.
+     *
+     * @param args the baseline xml file, the mandatoryTags.xml or - for none, and the target xml files
+     */
+    public static void main(String[] args)
+    {
+        XmlDiff.processProperties();
+        XmlDiff.isQuiet = true; // The differences are written only to their output files
+
+        if (args.length < 3)
+        {
+            System.out.println ("This application expects the following arguments:\n" +
+                                "- the baseline xml file (the old version) \n" +
+                                "- the xml file with the mandatory tags, or - if there are none \n" +
+                                "- one or more target xml files (the new versions), each one diffed with the baseline into xmlDiff_<target file name> \n" +
+                                "  (or xmlDiff_<target file name>.edits with -DxmlDiff.editScript) \n");
+
+            System.exit(1);
+        }
+
+        if (XmlDiff.recordWindow > 0 || XmlDiff.memoryBudgetMB > 0)
+        {
+            System.out.println ("The baseline is loaded, so -DxmlDiff.recordWindow and -DxmlDiff.memoryBudgetMB are not supported. BatchXmlDiff can stream each pair of files, or diff it within the memory budget.");
+            System.exit(1);
+        }
+
+        try
+        {
+            List<String> targetPaths = Arrays.asList(args).subList(2, args.length);
+            List<String> outputPaths = new ArrayList<String>();
+
+            Set<String> outputNames = new HashSet<String>();
+            for (String targetPath : targetPaths)
+            {
+                String outputName = "xmlDiff_" + new File(targetPath).getName() + (XmlDiff.editScript.equals("") ? "" : ".edits");
+                if (!outputNames.add(outputName))
+                {
+                    throw new IllegalArgumentException("Two targets have the same file name, so they would have the same output file: " + outputName);
+                }
+
+                outputPaths.add(outputName);
+            }
+
+            long start = System.nanoTime();
+            BaselineXmlDiff baselineXmlDiff = new BaselineXmlDiff(args[0], args[1].equals("-") ? "" : args[1]);
+            long loadMillis = (System.nanoTime() - start) / 1000000;
+
+            List<Throwable> errors = baselineXmlDiff.diff(targetPaths, outputPaths, XmlDiff.batchWorkers);
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            if (XmlDiff.isMetrics)
+            {
+                DiffMetrics.getInstance().writeReport("xmlDiffMetrics.json");
+            }
+
+            int nrOfFailed = 0;
+            for (int i = 0; i < targetPaths.size(); i++)
+            {
+                Throwable error = errors.get(i);
+                System.out.println ((error == null ? "OK       " : "FAILED   ") + targetPaths.get(i) + " -> " + outputPaths.get(i) + (error != null ? " (" + error + ")" : ""));
+
+                if (error != null)
+                {
+                    nrOfFailed++;
+                }
+            }
+
+            System.out.println (targetPaths.size() + " targets: " + nrOfFailed + " failed, in " + millis + " ms (" + loadMillis + " ms loading the baseline)");
+
+            if (nrOfFailed != 0)
+            {
+                System.exit(1);
+            }
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * This class diffs many pairs of xml files in one JVM, on a pool of worker threads.
+ * The pairs are read from a manifest file, with a row for each pair and its tab separated columns: old.xml, new.xml, mandatoryTags.xml (can be empty), output file.
+ * Empty rows and rows starting with # are ignored.
+ *
+ * Each worker keeps its MatchXml for all the pairs it diffs, and the mandatory tags of a file are read once and shared by all the pairs using it.
+ * With -DxmlDiff.editScript the output file of a pair receives its edit script instead of its difference.
+ * With -DxmlDiff.recordWindow each pair is diffed by a RecordStreamXmlDiff instead, and with -DxmlDiff.memoryBudgetMB by an OutOfCoreXmlDiff, with the budget for each worker.
+ * At the end a summary with the status and the time of each pair is printed.
+ */
+public class BatchXmlDiff
+{
+    /**
+     * A pair of xml files to be diffed, and its result.
+     */
+    private static final class Pair
+    {
+        private final int lineNr;
+        private final String oldFile;
+        private final String newFile;
+        private final String mandatoryTagsFile;
+        private final String outputFile;
+
+        private String status;
+        private String error;
+        private long millis;
+
+        Pair (int lineNr, String oldFile, String newFile, String mandatoryTagsFile, String outputFile)
+        {
+            this.lineNr = lineNr;
+            this.oldFile = oldFile;
+            this.newFile = newFile;
+            this.mandatoryTagsFile = mandatoryTagsFile;
+            this.outputFile = outputFile;
+        }
+    }
+
+    /**
+     * The MatchXml of each worker thread, kept for all the pairs it diffs.
+     */
+    private static final ThreadLocal<MatchXml> matchXmls = new ThreadLocal<MatchXml>()
+    {
+        @Override
+        protected MatchXml initialValue ()
+        {
+            return new MatchXml();
+        }
+    };
+
+    /**
+     * Entry point to the batch mode.
+     *
+     * @param args the manifest file with the pairs of xml files to be diffed
+     */
+    public static void main(String[] args)
+    {
+        XmlDiff.processProperties();
+        XmlDiff.isQuiet = true; // The workers write only their output files
+
+        if (args.length != 1)
+        {
+            System.out.println ("This application expects a manifest file, with a row for each pair of xml files to be compared and its tab separated columns:\n" +
+                                "- the old version of the xml file \n" +
+                                "- the new version of the xml file \n" +
+                                "- the optional xml file with the mandatory tags (the column can be empty) \n" +
+                                "- the output file \n");
+
+            System.exit(1);
+        }
+
+        try
+        {
+            List<Pair> pairs = getPairs(args[0]);
+
+            long start = System.nanoTime();
+            diff(pairs, XmlDiff.batchWorkers);
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            if (XmlDiff.isMetrics)
+            {
+                DiffMetrics.getInstance().writeReport("xmlDiffMetrics.json");
+            }
+
+            if (!printSummary(pairs, millis))
+            {
+                System.exit(1);
+            }
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Read the pairs of xml files from a manifest file.
+     *
+     * @param filePath the path to the manifest file
+     * @return the pairs, in the order of the manifest
+     * @throws IOException
+     * @throws IllegalArgumentException if a row doesn't have the expected columns
+     */
+    private static List<Pair> getPairs (String filePath) throws IOException
+    {
+        List<Pair> pairs = new ArrayList<Pair>();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(filePath), "UTF8"));
+        try
+        {
+            int lineNr = 0;
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                lineNr++;
+                if (line.trim().isEmpty() || line.startsWith("#"))
+                {
+                    continue;
+                }
+
+                String[] columns = line.split("\t", -1);
+                if (columns.length != 4 || columns[0].isEmpty() || columns[1].isEmpty() || columns[3].isEmpty())
+                {
+                    throw new IllegalArgumentException(filePath + ":" + lineNr + ": expected 4 tab separated columns (old, new, mandatory tags, output), got: \"" + line + "\"");
+                }
+
+                pairs.add(new Pair(lineNr, columns[0], columns[1], columns[2], columns[3]));
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return pairs;
+    }
+
+    /**
+     * Diff the pairs of xml files on a pool of worker threads, and keep the status and time of each pair.
+     *
+     * @param pairs the pairs to be diffed
+     * @param nrOfWorkers the number of worker threads
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private static void diff (List<Pair> pairs, int nrOfWorkers) throws InterruptedException, ExecutionException
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, nrOfWorkers));
+        try
+        {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final Pair pair : pairs)
+            {
+                results.add(workers.submit(new Callable<Void>()
+                {
+                    public Void call ()
+                    {
+                        diff(pair);
+                        return null;
+                    }
+                }));
+            }
+
+            // Wait for all the pairs. The errors of a pair are kept in its status
+            for (Future<Void> result : results)
+            {
+                result.get();
+            }
+        }
+        finally
+        {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Diff a pair of xml files, and keep its status and time.
+     *
+     * @param pair the pair to be diffed
+     */
+    private static void diff (Pair pair)
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            if (XmlDiff.recordWindow > 0 || XmlDiff.memoryBudgetMB > 0)
+            {
+                if (XmlDiff.recordWindow > 0)
+                {
+                    new RecordStreamXmlDiff(pair.mandatoryTagsFile, XmlDiff.recordWindow).diff(pair.oldFile, pair.newFile, pair.outputFile);
+                }
+                else
+                {
+                    new OutOfCoreXmlDiff(pair.mandatoryTagsFile, XmlDiff.memoryBudgetMB * 1024L * 1024L).diff(pair.oldFile, pair.newFile, pair.outputFile);
+                }
+
+                // The difference has at least the root tag, as checked by hasContent
+                pair.status = "CHANGED";
+                pair.millis = (System.nanoTime() - start) / 1000000;
+                return;
+            }
+
+            MatchXml matchXml = matchXmls.get();
+
+            MandatoryTags mandatoryTags = MandatoryTagsCache.get(matchXml, pair.mandatoryTagsFile);
+
+            List<Tag> tags1 = matchXml.getTags(pair.oldFile);
+            List<Tag> tags2 = matchXml.getTags(pair.newFile);
+
+            List<Tag> tagDiff = matchXml.GetTagDiff(tags1, tags2, mandatoryTags);
+
+            if (!XmlDiff.editScript.equals(""))
+            {
+                EditScript.write(tags1, tagDiff, XmlDiff.editScript, pair.outputFile);
+            }
+            else
+            {
+                matchXml.print(tagDiff, pair.outputFile);
+            }
+
+            pair.status = matchXml.hasContent(tagDiff) ? "CHANGED" : "SAME";
+        }
+        catch (Throwable e)
+        {
+            pair.status = "FAILED";
+            pair.error = e.toString();
+        }
+
+        pair.millis = (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Print the status and time of each pair, in the order of the manifest, and the totals.
+     *
+     * @param pairs the diffed pairs
+     * @param millis the time taken by all the pairs
+     * @return true if all the pairs were diffed, false if at least one failed
+     */
+    private static boolean printSummary (List<Pair> pairs, long millis)
+    {
+        int nrOfChanged = 0;
+        int nrOfSame = 0;
+        int nrOfFailed = 0;
+        long pairMillis = 0;
+
+        for (Pair pair : pairs)
+        {
+            System.out.println (String.format("%-8s %8d ms  line %d: %s %s -> %s%s", pair.status, pair.millis, pair.lineNr, pair.oldFile, pair.newFile, pair.outputFile,
+                                              pair.error != null ? " (" + pair.error + ")" : ""));
+
+            if (pair.status.equals("CHANGED"))
+            {
+                nrOfChanged++;
+            }
+            else if (pair.status.equals("SAME"))
+            {
+                nrOfSame++;
+            }
+            else
+            {
+                nrOfFailed++;
+            }
+
+            pairMillis += pair.millis;
+        }
+
+        System.out.println (pairs.size() + " pairs: " + nrOfChanged + " changed, " + nrOfSame + " same, " + nrOfFailed + " failed, in " + millis + " ms (" + pairMillis + " ms diffing)");
+
+        return nrOfFailed == 0;
+    }
+}
@@ -0,0 +1,462 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.RandomAccess;
+
+/**
+ * This class holds the content of an XML file in arrays of primitives, instead of a Tag structure for each tag and attribute:
+ * - each tag and attribute is a node, numbered from 0, with its name as its id in the TagNames of the loader
+ * - the child tags of a node are linked through the first child and the next sibling of each node
+ * - the attributes of a node are consecutive nodes
+ * - the values are held in a single array of chars, or out of the heap in a MappedValues with -DxmlDiff.isMappedInput=true
+ *
+ * The tags are read through Tag structures built on demand, which are not kept, so that MatchXml compares the content without loading it in Tags.
+ * Their values are read only when needed: two values are compared by their lengths and hashes first, then by their chars or bytes.
+ */
+class CompactTags
+{
+    private static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The nodes, by their number.
+     */
+    private int nrOfNodes = 0;
+
+    private int[] nameIds = new int[INITIAL_CAPACITY];
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+    private int[] nrOfChildTags = new int[INITIAL_CAPACITY];
+    private int[] firstAttributes = new int[INITIAL_CAPACITY];
+    private int[] nrOfAttributes = new int[INITIAL_CAPACITY];
+    private long[] valueStarts = new long[INITIAL_CAPACITY];
+    private int[] valueLengths = new int[INITIAL_CAPACITY];
+    private int[] valueHashes = new int[INITIAL_CAPACITY];
+    private long[] fingerprints = new long[INITIAL_CAPACITY];
+
+    /**
+     * The values of all the nodes.
+     */
+    private char[] values = new char[INITIAL_CAPACITY];
+    private int valuesLength = 0;
+
+    /**
+     * The values of all the nodes, as UTF-8 bytes, when they are kept out of the heap. Else null.
+     */
+    private final MappedValues mappedValues;
+
+    /**
+     * The names of the nodes, by their ids.
+     */
+    private final TagNames tagNames;
+
+    private int rootNode = NONE;
+
+    /**
+     * Constructor.
+     *
+     * @param tagNames the names of the tags and attributes, shared with the other loaded files
+     * @param mappedValues the store of the values if they are kept out of the heap, else null
+     */
+    CompactTags (TagNames tagNames, MappedValues mappedValues)
+    {
+        this.tagNames = tagNames;
+        this.mappedValues = mappedValues;
+    }
+
+    /**
+     * Add a tag, with its attributes. Its value and child tags are set when it ends.
+     *
+     * @param name the tag's name
+     * @param attributes the tag's attributes, sorted by name
+     * @param previousSibling the node of the previous child tag of the tag's parent, or NONE if it is the first one
+     * @param parent the node of the tag's parent, or NONE for the root tag
+     * @return the node of the tag
+     * @throws IOException
+     */
+    int addTag (String name, List<Tag> attributes, int previousSibling, int parent) throws IOException
+    {
+        int node = addNode(name);
+
+        if (parent == NONE)
+        {
+            rootNode = node;
+        }
+        else if (previousSibling == NONE)
+        {
+            firstChildren[parent] = node;
+        }
+        else
+        {
+            nextSiblings[previousSibling] = node;
+        }
+
+        if (parent != NONE)
+        {
+            nrOfChildTags[parent]++;
+        }
+
+        firstAttributes[node] = nrOfNodes;
+        nrOfAttributes[node] = attributes.size();
+
+        for (Tag attribute : attributes)
+        {
+            int attrNode = addNode(attribute.name);
+            setValue(attrNode, attribute.getValue());
+            fingerprints[attrNode] = attribute.fingerprint;
+        }
+
+        return node;
+    }
+
+    /**
+     * End a tag: set its value and calculate its fingerprint.
+     *
+     * @param node the node of the tag
+     * @param value the tag's value
+     * @param keepsChildTags specifies if the tag keeps its child tags, or if it holds only a value
+     * @throws IOException
+     */
+    void endTag (int node, String value, boolean keepsChildTags) throws IOException
+    {
+        if (!keepsChildTags)
+        {
+            firstChildren[node] = NONE;
+            nrOfChildTags[node] = 0;
+        }
+
+        setValue(node, value);
+
+        long[] attributeFingerprints = Arrays.copyOfRange(fingerprints, firstAttributes[node], firstAttributes[node] + nrOfAttributes[node]);
+
+        long[] childFingerprints = new long[nrOfChildTags[node]];
+        int i = 0;
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child])
+        {
+            childFingerprints[i++] = fingerprints[child];
+        }
+
+        fingerprints[node] = Tag.getFingerprint(tagNames.getName(nameIds[node]), value, attributeFingerprints, childFingerprints);
+    }
+
+    /**
+     * Get the root tag, read through a Tag structure.
+     *
+     * @return a list with the root tag, or an empty list if there is none
+     */
+    List<Tag> getTags ()
+    {
+        if (rootNode == NONE)
+        {
+            return new ArrayList<Tag>();
+        }
+
+        List<Tag> tags = new ArrayList<Tag>();
+        tags.add(getTag(rootNode));
+        return tags;
+    }
+
+    /**
+     * Get the number of nodes, tags and attributes.
+     *
+     * @return the number of nodes
+     */
+    int getNrOfNodes ()
+    {
+        return nrOfNodes;
+    }
+
+    /**
+     * Release the capacity which is not used, once all the tags were added, and map the values kept out of the heap.
+     *
+     * @throws IOException
+     */
+    void trim () throws IOException
+    {
+        nameIds = Arrays.copyOf(nameIds, nrOfNodes);
+        firstChildren = Arrays.copyOf(firstChildren, nrOfNodes);
+        nextSiblings = Arrays.copyOf(nextSiblings, nrOfNodes);
+        nrOfChildTags = Arrays.copyOf(nrOfChildTags, nrOfNodes);
+        firstAttributes = Arrays.copyOf(firstAttributes, nrOfNodes);
+        nrOfAttributes = Arrays.copyOf(nrOfAttributes, nrOfNodes);
+        valueStarts = Arrays.copyOf(valueStarts, nrOfNodes);
+        valueLengths = Arrays.copyOf(valueLengths, nrOfNodes);
+        valueHashes = Arrays.copyOf(valueHashes, nrOfNodes);
+        fingerprints = Arrays.copyOf(fingerprints, nrOfNodes);
+        values = Arrays.copyOf(values, valuesLength);
+
+        if (mappedValues != null)
+        {
+            mappedValues.map();
+        }
+    }
+
+    /**
+     * Add a node without child tags, attributes or value.
+     *
+     * @param name the node's name
+     * @return the new node
+     */
+    private int addNode (String name)
+    {
+        if (nrOfNodes == nameIds.length)
+        {
+            int capacity = nrOfNodes * 2;
+
+            nameIds = Arrays.copyOf(nameIds, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            nrOfChildTags = Arrays.copyOf(nrOfChildTags, capacity);
+            firstAttributes = Arrays.copyOf(firstAttributes, capacity);
+            nrOfAttributes = Arrays.copyOf(nrOfAttributes, capacity);
+            valueStarts = Arrays.copyOf(valueStarts, capacity);
+            valueLengths = Arrays.copyOf(valueLengths, capacity);
+            valueHashes = Arrays.copyOf(valueHashes, capacity);
+            fingerprints = Arrays.copyOf(fingerprints, capacity);
+        }
+
+        int node = nrOfNodes++;
+        nameIds[node] = tagNames.getId(name);
+        firstChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+
+        return node;
+    }
+
+    /**
+     * Set the value of a node.
+     *
+     * @param node the node
+     * @param value the node's value
+     * @throws IOException
+     */
+    private void setValue (int node, String value) throws IOException
+    {
+        valueHashes[node] = value.hashCode();
+
+        if (mappedValues != null)
+        {
+            valueStarts[node] = mappedValues.add(value);
+            valueLengths[node] = (int)(mappedValues.getSize() - valueStarts[node]);
+            return;
+        }
+
+        int length = value.length();
+        if (valuesLength + length > values.length)
+        {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, valuesLength + length));
+        }
+
+        value.getChars(0, length, values, valuesLength);
+        valueStarts[node] = valuesLength;
+        valueLengths[node] = length;
+        valuesLength += length;
+    }
+
+    /**
+     * Read the value of a node.
+     *
+     * @param node the node
+     * @return the node's value
+     */
+    private String getValue (int node)
+    {
+        if (valueLengths[node] == 0)
+        {
+            return "";
+        }
+
+        if (mappedValues != null)
+        {
+            return mappedValues.getString(valueStarts[node], valueLengths[node]);
+        }
+
+        return new String(values, (int)valueStarts[node], valueLengths[node]);
+    }
+
+    /**
+     * Check if the value of a node is the same as the value of a node of another CompactTags with the same kind of store.
+     *
+     * @param node the node
+     * @param compactTags the CompactTags of the other node
+     * @param otherNode the other node
+     * @return true if the values are the same, else false
+     */
+    private boolean hasSameValue (int node, CompactTags compactTags, int otherNode)
+    {
+        int length = valueLengths[node];
+        if (length != compactTags.valueLengths[otherNode] || valueHashes[node] != compactTags.valueHashes[otherNode])
+        {
+            return false;
+        }
+
+        if (mappedValues != null)
+        {
+            return mappedValues.equals(valueStarts[node], compactTags.mappedValues, compactTags.valueStarts[otherNode], length);
+        }
+
+        int start = (int)valueStarts[node];
+        int otherStart = (int)compactTags.valueStarts[otherNode];
+        for (int i = 0; i < length; i++)
+        {
+            if (values[start + i] != compactTags.values[otherStart + i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Read a node through a Tag structure.
+     *
+     * @param node the node
+     * @return a new Tag with the content of the node
+     */
+    private Tag getTag (int node)
+    {
+        List<Tag> attributes = nrOfAttributes[node] != 0 ? new AttributeList(node) : Collections.<Tag>emptyList();
+        List<Tag> childTags = nrOfChildTags[node] != 0 ? new ChildTagList(node) : Collections.<Tag>emptyList();
+
+        return new CompactTag(node, attributes, childTags);
+    }
+
+    /**
+     * A node read through a Tag structure, whose value is read only when it is needed.
+     */
+    private final class CompactTag extends Tag
+    {
+        private final int node;
+
+        CompactTag (int node, List<Tag> attributes, List<Tag> childTags)
+        {
+            super(0, tagNames.getName(nameIds[node]), Tag.NOT_MATCHED, attributes, Tag.NOT_MATCHED, null, childTags, Tag.NOT_MATCHED, "S", false, false, false, 0, 0, 0);
+            this.node = node;
+
+            nameId = nameIds[node];
+            fingerprint = fingerprints[node];
+        }
+
+        @Override
+        String getValue ()
+        {
+            return CompactTags.this.getValue(node);
+        }
+
+        @Override
+        boolean hasSameValue (Tag tag)
+        {
+            if (tag instanceof CompactTag)
+            {
+                CompactTags compactTags = ((CompactTag)tag).getCompactTags();
+                if ((mappedValues == null) == (compactTags.mappedValues == null))
+                {
+                    return CompactTags.this.hasSameValue(node, compactTags, ((CompactTag)tag).node);
+                }
+            }
+
+            return super.hasSameValue(tag);
+        }
+
+        /**
+         * Get the CompactTags this tag was read from.
+         *
+         * @return the CompactTags of the tag
+         */
+        private CompactTags getCompactTags ()
+        {
+            return CompactTags.this;
+        }
+    }
+
+    /**
+     * The attributes of a node, read through Tag structures.
+     */
+    private final class AttributeList extends AbstractList<Tag> implements RandomAccess
+    {
+        private final int node;
+
+        AttributeList (int node)
+        {
+            this.node = node;
+        }
+
+        @Override
+        public Tag get (int index)
+        {
+            if (index < 0 || index >= nrOfAttributes[node])
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + nrOfAttributes[node]);
+            }
+
+            return getTag(firstAttributes[node] + index);
+        }
+
+        @Override
+        public int size ()
+        {
+            return nrOfAttributes[node];
+        }
+    }
+
+    /**
+     * The child tags of a node, read through Tag structures.
+     */
+    private final class ChildTagList extends AbstractList<Tag> implements RandomAccess
+    {
+        private final int node;
+
+        /**
+         * The child nodes by their position, found on the first access. They are only read once set, so they are shared safely by the threads comparing tags.
+         */
+        private volatile int[] childNodes;
+
+        ChildTagList (int node)
+        {
+            this.node = node;
+        }
+
+        @Override
+        public Tag get (int index)
+        {
+            int[] nodes = childNodes;
+            if (nodes == null)
+            {
+                nodes = new int[nrOfChildTags[node]];
+
+                int i = 0;
+                for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child])
+                {
+                    nodes[i++] = child;
+                }
+
+                childNodes = nodes;
+            }
+
+            return getTag(nodes[index]);
+        }
+
+        @Override
+        public int size ()
+        {
+            return nrOfChildTags[node];
+        }
+    }
+}
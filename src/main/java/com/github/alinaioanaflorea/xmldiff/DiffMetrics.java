@@ -0,0 +1,414 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.io.Writer;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import javax.management.ObjectName;
+
+/**
+ * This class collects the metrics of the diffs run in this JVM, with -DxmlDiff.isMetrics=true:
+ * the wall and CPU time of each phase, the number of tag pairs compared at each level of tags and under each parent tag, the maximum depth and the number of allocated Tags.
+ * The metrics are added up over all the diffs, eg: of a batch, and they are reported as JSON and through JMX.
+ * When the metrics are off the measured code only checks XmlDiff.isMetrics, or a null DiffMetrics.
+ */
+public class DiffMetrics implements DiffMetricsMBean
+{
+    /**
+     * The measured phases. The matchTags phase is part of the diff phase, and its time is added up over the threads comparing in parallel.
+     */
+    static final int LOAD = 0;
+    static final int DIFF = 1;
+    static final int MATCH_TAGS = 2;
+    static final int PRINT = 3;
+
+    private static final String[] PHASE_NAMES = {"load", "diff", "matchTags", "print"};
+
+    /**
+     * The number of busiest parent tags which are reported.
+     */
+    private static final int NR_OF_BUSIEST_PARENTS = 10;
+
+    private static final String OBJECT_NAME = "com.github.alinaioanaflorea.xmldiff:type=DiffMetrics";
+
+    private static final DiffMetrics instance = new DiffMetrics();
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private final AtomicLongArray phaseCalls = new AtomicLongArray(PHASE_NAMES.length);
+    private final AtomicLongArray phaseWallTimes = new AtomicLongArray(PHASE_NAMES.length);
+    private final AtomicLongArray phaseCpuTimes = new AtomicLongArray(PHASE_NAMES.length);
+
+    private final AtomicLong comparedPairs = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong allocatedTags = new AtomicLong();
+
+    /**
+     * The number of compared tag pairs by level, and by the name and level of their parent tag.
+     */
+    private final ConcurrentMap<Integer, AtomicLong> pairsByLevel = new ConcurrentHashMap<Integer, AtomicLong>();
+    private final ConcurrentMap<Parent, AtomicLong> pairsByParent = new ConcurrentHashMap<Parent, AtomicLong>();
+
+    /**
+     * Get the metrics of this JVM.
+     *
+     * @return the metrics
+     */
+    public static DiffMetrics getInstance ()
+    {
+        return instance;
+    }
+
+    /**
+     * Register the metrics as an MBean, if they are not registered yet.
+     */
+    static synchronized void register ()
+    {
+        try
+        {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+            {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, name);
+            }
+        }
+        catch (Exception e)
+        {
+            System.err.println ("The metrics are not registered with JMX: " + e);
+        }
+    }
+
+    /**
+     * Get the CPU time of the current thread.
+     *
+     * @return the CPU time in nanoseconds, or 0 if it is not supported
+     */
+    static long getCpuTime ()
+    {
+        return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Add the time of a phase, run by the current thread.
+     *
+     * @param phase the phase
+     * @param startWallTime the System.nanoTime when the phase started
+     * @param startCpuTime the getCpuTime when the phase started
+     */
+    void addTime (int phase, long startWallTime, long startCpuTime)
+    {
+        phaseCalls.incrementAndGet(phase);
+        phaseWallTimes.addAndGet(phase, System.nanoTime() - startWallTime);
+        phaseCpuTimes.addAndGet(phase, getCpuTime() - startCpuTime);
+    }
+
+    /**
+     * Add the tag pairs compared in a level of sibling tags.
+     *
+     * @param tagLevel the level of the tags
+     * @param parentName the name of the parent of the tags, or null for the root tags
+     * @param nrOfPairs the number of compared pairs
+     */
+    void addComparedPairs (int tagLevel, String parentName, int nrOfPairs)
+    {
+        int depth = maxDepth.get();
+        while (tagLevel > depth && !maxDepth.compareAndSet(depth, tagLevel))
+        {
+            depth = maxDepth.get();
+        }
+
+        if (nrOfPairs == 0)
+        {
+            return;
+        }
+
+        comparedPairs.addAndGet(nrOfPairs);
+        getCounter(pairsByLevel, tagLevel).addAndGet(nrOfPairs);
+        getCounter(pairsByParent, new Parent(parentName, tagLevel - 1)).addAndGet(nrOfPairs);
+    }
+
+    /**
+     * Count an allocated Tag.
+     */
+    void countTag ()
+    {
+        allocatedTags.incrementAndGet();
+    }
+
+    /**
+     * Get the counter of a key, adding it if it is missing.
+     *
+     * @param counters the counters
+     * @param key the key
+     * @return the counter
+     */
+    private static <K> AtomicLong getCounter (ConcurrentMap<K, AtomicLong> counters, K key)
+    {
+        AtomicLong counter = counters.get(key);
+        if (counter == null)
+        {
+            counter = new AtomicLong();
+
+            AtomicLong otherCounter = counters.putIfAbsent(key, counter);
+            if (otherCounter != null)
+            {
+                counter = otherCounter;
+            }
+        }
+
+        return counter;
+    }
+
+    /**
+     * A parent tag, by its name and level.
+     */
+    private static final class Parent
+    {
+        final String name;
+        final int tagLevel;
+
+        Parent (String name, int tagLevel)
+        {
+            this.name = name;
+            this.tagLevel = tagLevel;
+        }
+
+        @Override
+        public boolean equals (Object other)
+        {
+            if (!(other instanceof Parent))
+            {
+                return false;
+            }
+
+            Parent parent = (Parent)other;
+            return tagLevel == parent.tagLevel && (name == null ? parent.name == null : name.equals(parent.name));
+        }
+
+        @Override
+        public int hashCode ()
+        {
+            return 31 * tagLevel + (name == null ? 0 : name.hashCode());
+        }
+    }
+
+    /**
+     * Write the metrics as JSON to a file.
+     *
+     * @param fileName the name of the file
+     * @throws IOException
+     */
+    public void writeReport (String fileName) throws IOException
+    {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF8"));
+        try
+        {
+            out.write(getReport());
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    public String getReport ()
+    {
+        StringBuilder json = new StringBuilder("{\n  \"phases\": {");
+
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++)
+        {
+            json.append(phase == 0 ? "\n" : ",\n");
+            json.append("    \"").append(PHASE_NAMES[phase]).append("\": {\"calls\": ").append(phaseCalls.get(phase))
+                .append(", \"wallMillis\": ").append(toMillis(phaseWallTimes.get(phase)))
+                .append(", \"cpuMillis\": ").append(toMillis(phaseCpuTimes.get(phase))).append("}");
+        }
+
+        json.append("\n  },\n  \"comparedPairs\": ").append(comparedPairs.get());
+
+        json.append(",\n  \"comparedPairsByLevel\": [");
+        long[] levelPairs = getComparedPairsByLevel();
+        for (int i = 0; i < levelPairs.length; i++)
+        {
+            json.append(i == 0 ? "" : ", ").append(levelPairs[i]);
+        }
+        json.append("]");
+
+        json.append(",\n  \"maxDepth\": ").append(maxDepth.get());
+        json.append(",\n  \"allocatedTags\": ").append(allocatedTags.get());
+
+        json.append(",\n  \"busiestParents\": [");
+        List<Map.Entry<Parent, AtomicLong>> parents = getBusiestParents();
+        for (int i = 0; i < parents.size(); i++)
+        {
+            Parent parent = parents.get(i).getKey();
+
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"name\": ").append(parent.name == null ? "null" : "\"" + escape(parent.name) + "\"")
+                .append(", \"level\": ").append(parent.tagLevel)
+                .append(", \"comparedPairs\": ").append(parents.get(i).getValue().get()).append("}");
+        }
+        json.append(parents.isEmpty() ? "]" : "\n  ]");
+
+        return json.append("\n}\n").toString();
+    }
+
+    /**
+     * Get the parent tags under which the most tag pairs were compared.
+     *
+     * @return the busiest parents and their number of compared pairs, the busiest first
+     */
+    private List<Map.Entry<Parent, AtomicLong>> getBusiestParents ()
+    {
+        List<Map.Entry<Parent, AtomicLong>> parents = new ArrayList<Map.Entry<Parent, AtomicLong>>(pairsByParent.entrySet());
+
+        Collections.sort(parents, new Comparator<Map.Entry<Parent, AtomicLong>>()
+        {
+            public int compare (Map.Entry<Parent, AtomicLong> parent1, Map.Entry<Parent, AtomicLong> parent2)
+            {
+                long pairs1 = parent1.getValue().get();
+                long pairs2 = parent2.getValue().get();
+                return pairs1 > pairs2 ? -1 : (pairs1 < pairs2 ? 1 : 0);
+            }
+        });
+
+        return parents.subList(0, Math.min(NR_OF_BUSIEST_PARENTS, parents.size()));
+    }
+
+    /**
+     * Convert nanoseconds to milliseconds, keeping 3 decimals.
+     *
+     * @param nanos the nanoseconds
+     * @return the milliseconds
+     */
+    private static double toMillis (long nanos)
+    {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    /**
+     * Escape a string as a JSON string's content.
+     *
+     * @param value the string
+     * @return the escaped string
+     */
+    private static String escape (String value)
+    {
+        StringBuilder escaped = new StringBuilder();
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                escaped.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                escaped.append(String.format("\\u%04x", (int)c));
+            }
+            else
+            {
+                escaped.append(c);
+            }
+        }
+
+        return escaped.toString();
+    }
+
+    public String[] getPhaseNames ()
+    {
+        return PHASE_NAMES.clone();
+    }
+
+    public long[] getPhaseWallMillis ()
+    {
+        return getMillis(phaseWallTimes);
+    }
+
+    public long[] getPhaseCpuMillis ()
+    {
+        return getMillis(phaseCpuTimes);
+    }
+
+    private static long[] getMillis (AtomicLongArray nanos)
+    {
+        long[] millis = new long[nanos.length()];
+        for (int i = 0; i < millis.length; i++)
+        {
+            millis[i] = nanos.get(i) / 1000000;
+        }
+
+        return millis;
+    }
+
+    public long getComparedPairs ()
+    {
+        return comparedPairs.get();
+    }
+
+    public long[] getComparedPairsByLevel ()
+    {
+        int nrOfLevels = 0;
+        for (int tagLevel : pairsByLevel.keySet())
+        {
+            nrOfLevels = Math.max(nrOfLevels, tagLevel);
+        }
+
+        long[] levelPairs = new long[nrOfLevels];
+        for (Map.Entry<Integer, AtomicLong> level : pairsByLevel.entrySet())
+        {
+            levelPairs[level.getKey() - 1] = level.getValue().get();
+        }
+
+        return levelPairs;
+    }
+
+    public int getMaxDepth ()
+    {
+        return maxDepth.get();
+    }
+
+    public long getAllocatedTags ()
+    {
+        return allocatedTags.get();
+    }
+
+    public void reset ()
+    {
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++)
+        {
+            phaseCalls.set(phase, 0);
+            phaseWallTimes.set(phase, 0);
+            phaseCpuTimes.set(phase, 0);
+        }
+
+        comparedPairs.set(0);
+        maxDepth.set(0);
+        allocatedTags.set(0);
+        pairsByLevel.clear();
+        pairsByParent.clear();
+    }
+}
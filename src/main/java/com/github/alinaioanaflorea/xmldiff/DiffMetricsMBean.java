@@ -0,0 +1,78 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+/**
+ * The JMX view of the DiffMetrics, registered as com.github.alinaioanaflorea.xmldiff:type=DiffMetrics with -DxmlDiff.isMetrics=true.
+ */
+public interface DiffMetricsMBean
+{
+    /**
+     * Get the metrics as JSON.
+     *
+     * @return the JSON report
+     */
+    String getReport ();
+
+    /**
+     * Get the names of the measured phases: load, diff, matchTags and print.
+     *
+     * @return the names of the phases
+     */
+    String[] getPhaseNames ();
+
+    /**
+     * Get the wall time spent in each phase, in the order of getPhaseNames.
+     *
+     * @return the wall time of each phase, in milliseconds
+     */
+    long[] getPhaseWallMillis ();
+
+    /**
+     * Get the CPU time spent in each phase, in the order of getPhaseNames.
+     *
+     * @return the CPU time of each phase, in milliseconds
+     */
+    long[] getPhaseCpuMillis ();
+
+    /**
+     * Get the number of tag pairs compared.
+     *
+     * @return the number of compared pairs
+     */
+    long getComparedPairs ();
+
+    /**
+     * Get the number of tag pairs compared at each level of tags, starting with the root level.
+     *
+     * @return the number of compared pairs by level
+     */
+    long[] getComparedPairsByLevel ();
+
+    /**
+     * Get the deepest level of tags compared, which is the maximum recursion depth of the diff.
+     *
+     * @return the maximum depth
+     */
+    int getMaxDepth ();
+
+    /**
+     * Get the number of Tags allocated.
+     *
+     * @return the number of allocated Tags
+     */
+    long getAllocatedTags ();
+
+    /**
+     * Clear the metrics.
+     */
+    void reset ();
+}
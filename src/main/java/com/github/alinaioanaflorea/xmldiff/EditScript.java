@@ -0,0 +1,988 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.BitSet;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Writer;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * This class writes the difference of two xml files as an edit script, a compact alternative to the xmlDiff.xml file: only the edits are written, each one with the path of its tag,
+ * so neither the parent tags of the changes nor the content of the deleted tags are repeated. The edits are:
+ * - insert: a new tag with its content, under its parent tag, at its position among its sibling tags with the same name in the new file
+ * - delete: a deleted tag
+ * - update-attr: a new attribute, or an attribute with a new value, of a changed tag
+ * - delete-attr: a deleted attribute of a changed tag
+ * - update-value: the new value of a changed tag
+ * - rename: the new name of the root tag, which is matched whatever its name
+ *
+ * A path is made of the names of the tags from the root tag, each one but the root tag with its position among its sibling tags with the same name, starting from 1, like in XPath,
+ * eg: /root/rec[3]/name[1]. All the paths are in the old file as it is before the edits, so the tags of the paths are found first, then edited. The path of the parent of an
+ * inserted root tag is /. The edits of a tag come before the edits of its child tags: first the updates and the deletions of the child tags, in their order in the old file,
+ * then the insertions, in their order in the new file. The matched tags keep their order of the old file, as the tags are matched whatever their order.
+ * The mandatory tags are not written, as they are not edits.
+ *
+ * The text form has an edit on each line: the edit and the path, then the name of the attribute and the value, or the position and the inserted tag as xml, separated by a space, eg:
+ *   update-attr /root/rec[3] id 42
+ *   insert /root 7 <rec id="7"><name>x</name></rec>
+ * The values are escaped as in xml, with the line breaks and the tabs as character references, so that each edit stays on its line.
+ *
+ * The binary form has:
+ * - the header: the MAGIC bytes and the number VERSION
+ * - each edit as: byte the edit, the path, then the name of the attribute and the value, or the new name, or the position and the inserted tag as: name, value, the number of
+ *   attributes, the attributes (name, value), the number of child tags, the child tags
+ * - byte END
+ * - a path is the number of its tags which are the same as the first tags of the previous path, the number of the other tags, then each one of them as a name and a number position
+ * - a name is a number index, followed by the name itself the first time it is used; a name or a value is a number of UTF-8 bytes, followed by the bytes
+ * - a number is written in groups of 7 bits, the lowest group first, with the high bit set on all the bytes but the last one
+ */
+public class EditScript
+{
+    private static final byte[] MAGIC = { 'X', 'M', 'L', 'D', 'I', 'F', 'F', 'E' };
+
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The edits, by their codes in the binary form, and their names in the text form.
+     */
+    private static final int END = 0;
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+    private static final int UPDATE_ATTRIBUTE = 3;
+    private static final int DELETE_ATTRIBUTE = 4;
+    private static final int UPDATE_VALUE = 5;
+    private static final int RENAME = 6;
+
+    private static final String[] EDIT_NAMES = { "end", "insert", "delete", "update-attr", "delete-attr", "update-value", "rename" };
+
+    /**
+     * MatchXml marks with these suffixes the value of a matched tag which has child tags only in the old file, and a value in the new file (N),
+     * or a value in the old file, and child tags only in the new file (D).
+     */
+    private static final String NEW_VALUE_SUFFIX = " (mod_val=\"N\")";
+    private static final String DELETED_VALUE_SUFFIX = " (mod_val=\"D\")";
+
+    /**
+     * Entry point to the edit script printer, which prints a binary edit script in its text form.
+     *
+     * @param args the binary edit script
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 1)
+        {
+            System.out.println ("This application expects a binary edit script, which is printed in its text form");
+            System.exit(1);
+        }
+
+        try
+        {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF8"));
+            read(args[0], new TextEdits(out));
+            out.flush();
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write the difference of two xml files as an edit script, to the standard output too for the text form, unless XmlDiff.isQuiet.
+     *
+     * @param oldTags the tags of the old file, for the old name of the root tag
+     * @param tagDiff the difference, from MatchXml.GetTagDiff
+     * @param format the form of the edit script: text or binary
+     * @param fileName the file to write to
+     * @throws IOException
+     */
+    static void write (List<Tag> oldTags, List<Tag> tagDiff, String format, String fileName) throws IOException
+    {
+        if (format.equals("text"))
+        {
+            writeText(oldTags, tagDiff, fileName);
+        }
+        else if (format.equals("binary"))
+        {
+            writeBinary(oldTags, tagDiff, fileName);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Not a valid edit script format: " + format + ", it is text or binary");
+        }
+    }
+
+    /**
+     * Write the text form of an edit script.
+     *
+     * @param oldTags the tags of the old file
+     * @param tagDiff the difference
+     * @param fileName the file to write to
+     * @throws IOException
+     */
+    private static void writeText (List<Tag> oldTags, List<Tag> tagDiff, String fileName) throws IOException
+    {
+        Writer stdout = null;
+        Writer file = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF8"));
+
+        try
+        {
+            if (!XmlDiff.isQuiet)
+            {
+                stdout = new BufferedWriter(new OutputStreamWriter(System.out));
+            }
+
+            writeEdits(oldTags, tagDiff, new TextEdits(stdout == null ? file : new ProcessXml.TeeWriter(stdout, file)));
+
+            if (stdout != null)
+            {
+                stdout.write(ProcessXml.LINE_SEPARATOR);
+                stdout.flush();
+            }
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Write the binary form of an edit script.
+     *
+     * @param oldTags the tags of the old file
+     * @param tagDiff the difference
+     * @param fileName the file to write to
+     * @throws IOException
+     */
+    private static void writeBinary (List<Tag> oldTags, List<Tag> tagDiff, String fileName) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+        try
+        {
+            out.write(MAGIC);
+            writeNumber(out, VERSION);
+
+            writeEdits(oldTags, tagDiff, new BinaryEdits(out));
+
+            out.writeByte(END);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a binary edit script, and pass its edits on.
+     *
+     * @param fileName the binary edit script
+     * @param edits receives the edits, in their order
+     * @throws IOException if the file can't be read, or is not a binary edit script
+     */
+    static void read (String fileName, Edits edits) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+        try
+        {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+
+            if (!Arrays.equals(magic, MAGIC) || readNumber(in) != VERSION)
+            {
+                throw new IOException("Not a binary edit script, or written by another version of XmlDiff: " + fileName);
+            }
+
+            List<String> names = new ArrayList<String>();
+            Path path = null;
+
+            for (int edit = in.readByte(); edit != END; edit = in.readByte())
+            {
+                path = readPath(in, names, path);
+
+                switch (edit)
+                {
+                    case INSERT:
+                        int position = readNumber(in);
+                        edits.insert(path, position, readTag(in, names));
+                        break;
+                    case DELETE:
+                        edits.delete(path);
+                        break;
+                    case UPDATE_ATTRIBUTE:
+                        edits.updateAttribute(path, readName(in, names), readString(in));
+                        break;
+                    case DELETE_ATTRIBUTE:
+                        edits.deleteAttribute(path, readName(in, names));
+                        break;
+                    case UPDATE_VALUE:
+                        edits.updateValue(path, readString(in));
+                        break;
+                    case RENAME:
+                        edits.rename(path, readName(in, names));
+                        break;
+                    default:
+                        throw new IOException("Not a valid binary edit script: unknown edit " + edit);
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Pass on the edits of a difference.
+     *
+     * @param oldTags the tags of the old file, for the old name of the root tag
+     * @param tagDiff the difference, from MatchXml.GetTagDiff
+     * @param edits receives the edits, in their order
+     * @throws IOException
+     */
+    static void writeEdits (List<Tag> oldTags, List<Tag> tagDiff, Edits edits) throws IOException
+    {
+        writeEdits(tagDiff, null, oldTags, edits);
+    }
+
+    /**
+     * Pass on the edits of a level of sibling tags of the difference, and of their child tags.
+     *
+     * @param diffTags the sibling tags of the difference
+     * @param parentPath the path of their parent tag in the old file, or null for the root tags
+     * @param oldTags the tags of the old file, for the old names of the root tags, or null for the other tags, which are matched by their names
+     * @param edits receives the edits
+     * @throws IOException
+     */
+    private static void writeEdits (List<Tag> diffTags, Path parentPath, List<Tag> oldTags, Edits edits) throws IOException
+    {
+        List<Tag> tags = getTagsInOrder(diffTags, true);
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+
+        for (Tag tag : tags)
+        {
+            String name = oldTags == null ? tag.name : oldTags.get(tag.index1).name;
+            Path path = new Path(parentPath, name, getNextPosition(positions, name));
+
+            if (!isMatched(tag))
+            {
+                edits.delete(path);
+                continue;
+            }
+
+            if (!name.equals(tag.name))
+            {
+                edits.rename(path, tag.name);
+            }
+
+            if (!tag.modification.equals("S") || tag.childTagChanged)
+            {
+                writeChangeEdits(tag, path, edits);
+            }
+        }
+
+        tags = getTagsInOrder(diffTags, false);
+        positions.clear();
+
+        for (Tag tag : tags)
+        {
+            int position = getNextPosition(positions, tag.name);
+            if (!isMatched(tag))
+            {
+                edits.insert(parentPath, position, tag);
+            }
+        }
+    }
+
+    /**
+     * Pass on the edits of a changed tag: of its attributes, its value and its child tags.
+     *
+     * @param tag the matched tag
+     * @param path the path of the tag in the old file
+     * @param edits receives the edits
+     * @throws IOException
+     */
+    private static void writeChangeEdits (Tag tag, Path path, Edits edits) throws IOException
+    {
+        for (Tag attr : tag.attributes)
+        {
+            if (attr.modification.equals("D"))
+            {
+                edits.deleteAttribute(path, attr.name);
+            }
+            else if (!attr.modification.equals("S"))
+            {
+                edits.updateAttribute(path, attr.name, attr.getValue());
+            }
+        }
+
+        String value = tag.getValue();
+        if (tag.childTags.isEmpty())
+        {
+            if (tag.valuesMatchPercent == Tag.NOT_MATCHED)
+            {
+                edits.updateValue(path, value);
+            }
+        }
+        else if (value.endsWith(NEW_VALUE_SUFFIX))
+        {
+            // The child tags are deleted, and the tag gets the value
+            edits.updateValue(path, value.substring(0, value.length() - NEW_VALUE_SUFFIX.length()));
+        }
+        else if (value.endsWith(DELETED_VALUE_SUFFIX))
+        {
+            // The value is deleted, and the tag gets the child tags
+            edits.updateValue(path, "");
+        }
+
+        writeEdits(tag.childTags, path, null, edits);
+    }
+
+    /**
+     * Check if a tag of the difference is matched, instead of being deleted or new.
+     *
+     * @param tag the tag of the difference
+     * @return true if the tag is matched, else false
+     */
+    private static boolean isMatched (Tag tag)
+    {
+        return tag.nameMatchPercent == Tag.MATCHED;
+    }
+
+    /**
+     * Get the sibling tags of the difference which are in the old file, or in the new file, in their order in that file.
+     *
+     * @param diffTags the sibling tags of the difference
+     * @param isOld specifies if the tags of the old file are taken, else the tags of the new file
+     * @return the tags in their order
+     */
+    private static List<Tag> getTagsInOrder (List<Tag> diffTags, final boolean isOld)
+    {
+        List<Tag> tags = new ArrayList<Tag>();
+        BitSet indexes = new BitSet();
+
+        for (Tag tag : diffTags)
+        {
+            if (isMatched(tag) || tag.modification.equals(isOld ? "D" : "N"))
+            {
+                // A tag of the file is edited once, even if the matching kept it in more than one pair
+                int index = isOld ? tag.index1 : tag.index2;
+                if (!indexes.get(index))
+                {
+                    indexes.set(index);
+                    tags.add(tag);
+                }
+            }
+        }
+
+        Collections.sort(tags, new Comparator<Tag>()
+        {
+            public int compare (Tag tag1, Tag tag2)
+            {
+                int index1 = isOld ? tag1.index1 : tag1.index2;
+                int index2 = isOld ? tag2.index1 : tag2.index2;
+
+                return index1 < index2 ? -1 : (index1 == index2 ? 0 : 1);
+            }
+        });
+
+        return tags;
+    }
+
+    /**
+     * Get the position of the next sibling tag with a name, among the sibling tags with the same name.
+     *
+     * @param positions the positions of the sibling tags so far, by their names
+     * @param name the name of the tag
+     * @return the position, starting from 1
+     */
+    private static int getNextPosition (Map<String, Integer> positions, String name)
+    {
+        Integer position = positions.get(name);
+        position = position == null ? 1 : position + 1;
+        positions.put(name, position);
+
+        return position;
+    }
+
+    /**
+     * Read a path.
+     *
+     * @param in the binary edit script
+     * @param names the names read so far, by their indexes
+     * @param previousPath the path of the previous edit, or null for the first edit
+     * @return the path
+     * @throws IOException
+     */
+    private static Path readPath (DataInputStream in, List<String> names, Path previousPath) throws IOException
+    {
+        int nrOfSameTags = readNumber(in);
+        int nrOfOtherTags = readNumber(in);
+
+        Path path = null;
+        if (nrOfSameTags != 0)
+        {
+            if (previousPath == null || nrOfSameTags > previousPath.length)
+            {
+                throw new IOException("Not a valid binary edit script: a path has more tags in common with the previous path than it has");
+            }
+
+            path = previousPath.getAncestor(nrOfSameTags);
+        }
+
+        for (int i = 0; i < nrOfOtherTags; i++)
+        {
+            String name = readName(in, names);
+            path = new Path(path, name, readNumber(in));
+        }
+
+        return path;
+    }
+
+    /**
+     * Read an inserted tag and its content.
+     *
+     * @param in the binary edit script
+     * @param names the names read so far, by their indexes
+     * @return the tag
+     * @throws IOException
+     */
+    private static Tag readTag (DataInputStream in, List<String> names) throws IOException
+    {
+        String name = readName(in, names);
+        String value = readString(in);
+
+        int nrOfAttributes = readNumber(in);
+        List<Tag> attributes = new ArrayList<Tag>(nrOfAttributes);
+        for (int i = 0; i < nrOfAttributes; i++)
+        {
+            String attrName = readName(in, names);
+            attributes.add(new Tag(attrName, new ArrayList<Tag>(), readString(in), new ArrayList<Tag>()));
+        }
+
+        int nrOfChildTags = readNumber(in);
+        List<Tag> childTags = new ArrayList<Tag>(nrOfChildTags);
+        for (int i = 0; i < nrOfChildTags; i++)
+        {
+            childTags.add(readTag(in, names));
+        }
+
+        return new Tag(name, attributes, value, childTags);
+    }
+
+    /**
+     * Read a name.
+     *
+     * @param in the binary edit script
+     * @param names the names read so far, by their indexes, to which a new name is added
+     * @return the name
+     * @throws IOException
+     */
+    private static String readName (DataInputStream in, List<String> names) throws IOException
+    {
+        int index = readNumber(in);
+        if (index < names.size())
+        {
+            return names.get(index);
+        }
+
+        if (index != names.size())
+        {
+            throw new IOException("Not a valid binary edit script: unknown name " + index);
+        }
+
+        String name = readString(in);
+        names.add(name);
+        return name;
+    }
+
+    /**
+     * Read a String.
+     *
+     * @param in the binary edit script
+     * @return the String
+     * @throws IOException
+     */
+    private static String readString (DataInputStream in) throws IOException
+    {
+        int length = readNumber(in);
+        if (length == 0)
+        {
+            return "";
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Write a number which is not negative, in groups of 7 bits.
+     *
+     * @param out the binary edit script
+     * @param number the number
+     * @throws IOException
+     */
+    private static void writeNumber (DataOutputStream out, int number) throws IOException
+    {
+        while ((number & ~0x7F) != 0)
+        {
+            out.writeByte((number & 0x7F) | 0x80);
+            number >>>= 7;
+        }
+
+        out.writeByte(number);
+    }
+
+    /**
+     * Read a number.
+     *
+     * @param in the binary edit script
+     * @return the number
+     * @throws IOException
+     */
+    private static int readNumber (DataInputStream in) throws IOException
+    {
+        int number = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            number |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+            {
+                return number;
+            }
+        }
+
+        throw new IOException("Not a valid binary edit script: a number has too many bytes");
+    }
+
+    /**
+     * Escape a String as the value of an xml attribute, with the line breaks and the tabs as character references too.
+     *
+     * @param value the String
+     * @return the escaped String
+     */
+    static String escape (String value)
+    {
+        StringBuilder escaped = null;
+
+        int valueLength = value.length();
+        for (int i = 0; i < valueLength; i++)
+        {
+            char c = value.charAt(i);
+
+            String reference;
+            switch (c)
+            {
+                case '&':  reference = "&amp;"; break;
+                case '<':  reference = "&lt;"; break;
+                case '>':  reference = "&gt;"; break;
+                case '"':  reference = "&quot;"; break;
+                case '\n': reference = "&#10;"; break;
+                case '\r': reference = "&#13;"; break;
+                case '\t': reference = "&#9;"; break;
+                default:   reference = null;
+            }
+
+            if (reference != null && escaped == null)
+            {
+                escaped = new StringBuilder(value.length() + 16);
+                escaped.append(value, 0, i);
+            }
+
+            if (reference != null)
+            {
+                escaped.append(reference);
+            }
+            else if (escaped != null)
+            {
+                escaped.append(c);
+            }
+        }
+
+        return escaped == null ? value : escaped.toString();
+    }
+
+    /**
+     * The path of a tag: its name and its position among its sibling tags with the same name, under the path of its parent tag.
+     */
+    static final class Path
+    {
+        final Path parent;
+        final String name;
+        final int position;
+
+        /**
+         * The number of tags in the path.
+         */
+        final int length;
+
+        /**
+         * Constructor.
+         *
+         * @param parent the path of the parent tag, or null for the root tag
+         * @param name the name of the tag
+         * @param position the position of the tag among its sibling tags with the same name, starting from 1
+         */
+        Path (Path parent, String name, int position)
+        {
+            this.parent = parent;
+            this.name = name;
+            this.position = position;
+            this.length = parent == null ? 1 : parent.length + 1;
+        }
+
+        /**
+         * Get the path of an ancestor tag, or of this tag.
+         *
+         * @param length the number of tags in the path of the ancestor
+         * @return the path of the ancestor
+         */
+        Path getAncestor (int length)
+        {
+            Path path = this;
+            while (path.length > length)
+            {
+                path = path.parent;
+            }
+
+            return path;
+        }
+
+        /**
+         * Get the text form of the path, eg: /root/rec[3]/name[1]. The position of the root tag is left out.
+         *
+         * @return the text form
+         */
+        @Override
+        public String toString ()
+        {
+            StringBuilder text = new StringBuilder();
+            append(text);
+            return text.toString();
+        }
+
+        private void append (StringBuilder text)
+        {
+            if (parent == null)
+            {
+                text.append('/').append(name);
+                return;
+            }
+
+            parent.append(text);
+            text.append('/').append(name).append('[').append(position).append(']');
+        }
+    }
+
+    /**
+     * Receives the edits of an edit script, in their order.
+     */
+    interface Edits
+    {
+        void insert (Path parentPath, int position, Tag tag) throws IOException;
+
+        void delete (Path path) throws IOException;
+
+        void updateAttribute (Path path, String name, String value) throws IOException;
+
+        void deleteAttribute (Path path, String name) throws IOException;
+
+        void updateValue (Path path, String value) throws IOException;
+
+        void rename (Path path, String name) throws IOException;
+    }
+
+    /**
+     * Writes the edits in the text form.
+     */
+    private static final class TextEdits implements Edits
+    {
+        private final Writer out;
+
+        TextEdits (Writer out)
+        {
+            this.out = out;
+        }
+
+        public void insert (Path parentPath, int position, Tag tag) throws IOException
+        {
+            writeEdit(INSERT, parentPath);
+            out.write(" ");
+            out.write(String.valueOf(position));
+            out.write(" ");
+            writeTag(tag);
+            out.write("\n");
+        }
+
+        public void delete (Path path) throws IOException
+        {
+            writeEdit(DELETE, path);
+            out.write("\n");
+        }
+
+        public void updateAttribute (Path path, String name, String value) throws IOException
+        {
+            writeEdit(UPDATE_ATTRIBUTE, path);
+            out.write(" ");
+            out.write(name);
+            out.write(" ");
+            out.write(escape(value));
+            out.write("\n");
+        }
+
+        public void deleteAttribute (Path path, String name) throws IOException
+        {
+            writeEdit(DELETE_ATTRIBUTE, path);
+            out.write(" ");
+            out.write(name);
+            out.write("\n");
+        }
+
+        public void updateValue (Path path, String value) throws IOException
+        {
+            writeEdit(UPDATE_VALUE, path);
+            out.write(" ");
+            out.write(escape(value));
+            out.write("\n");
+        }
+
+        public void rename (Path path, String name) throws IOException
+        {
+            writeEdit(RENAME, path);
+            out.write(" ");
+            out.write(name);
+            out.write("\n");
+        }
+
+        private void writeEdit (int edit, Path path) throws IOException
+        {
+            out.write(EDIT_NAMES[edit]);
+            out.write(" ");
+            out.write(path == null ? "/" : path.toString());
+        }
+
+        /**
+         * Write an inserted tag and its content as xml, on one line.
+         *
+         * @param tag the tag
+         * @throws IOException
+         */
+        private void writeTag (Tag tag) throws IOException
+        {
+            out.write("<");
+            out.write(tag.name);
+
+            for (Tag attr : tag.attributes)
+            {
+                out.write(" ");
+                out.write(attr.name);
+                out.write("=\"");
+                out.write(escape(attr.getValue()));
+                out.write("\"");
+            }
+
+            String value = tag.getValue();
+            if (value.equals("") && tag.childTags.isEmpty())
+            {
+                out.write("/>");
+                return;
+            }
+
+            out.write(">");
+            out.write(escape(value));
+
+            for (Tag childTag : tag.childTags)
+            {
+                writeTag(childTag);
+            }
+
+            out.write("</");
+            out.write(tag.name);
+            out.write(">");
+        }
+    }
+
+    /**
+     * Writes the edits in the binary form.
+     */
+    private static final class BinaryEdits implements Edits
+    {
+        private final DataOutputStream out;
+
+        /**
+         * The indexes of the names written so far.
+         */
+        private final Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+
+        /**
+         * The tags of the path of the previous edit, from the root tag.
+         */
+        private Path[] previousPath = new Path[0];
+
+        BinaryEdits (DataOutputStream out)
+        {
+            this.out = out;
+        }
+
+        public void insert (Path parentPath, int position, Tag tag) throws IOException
+        {
+            writeEdit(INSERT, parentPath);
+            writeNumber(out, position);
+            writeTag(tag);
+        }
+
+        public void delete (Path path) throws IOException
+        {
+            writeEdit(DELETE, path);
+        }
+
+        public void updateAttribute (Path path, String name, String value) throws IOException
+        {
+            writeEdit(UPDATE_ATTRIBUTE, path);
+            writeName(name);
+            writeString(value);
+        }
+
+        public void deleteAttribute (Path path, String name) throws IOException
+        {
+            writeEdit(DELETE_ATTRIBUTE, path);
+            writeName(name);
+        }
+
+        public void updateValue (Path path, String value) throws IOException
+        {
+            writeEdit(UPDATE_VALUE, path);
+            writeString(value);
+        }
+
+        public void rename (Path path, String name) throws IOException
+        {
+            writeEdit(RENAME, path);
+            writeName(name);
+        }
+
+        /**
+         * Write the code of an edit and its path, as the tags which are not the same as in the path of the previous edit.
+         *
+         * @param edit the code of the edit
+         * @param path the path, or null for the parent of an inserted root tag
+         * @throws IOException
+         */
+        private void writeEdit (int edit, Path path) throws IOException
+        {
+            Path[] tags = new Path[path == null ? 0 : path.length];
+            for (Path tag = path; tag != null; tag = tag.parent)
+            {
+                tags[tag.length - 1] = tag;
+            }
+
+            int nrOfSameTags = 0;
+            while (nrOfSameTags < tags.length && nrOfSameTags < previousPath.length &&
+                   tags[nrOfSameTags].position == previousPath[nrOfSameTags].position && tags[nrOfSameTags].name.equals(previousPath[nrOfSameTags].name))
+            {
+                nrOfSameTags++;
+            }
+
+            out.writeByte(edit);
+            writeNumber(out, nrOfSameTags);
+            writeNumber(out, tags.length - nrOfSameTags);
+
+            for (int i = nrOfSameTags; i < tags.length; i++)
+            {
+                writeName(tags[i].name);
+                writeNumber(out, tags[i].position);
+            }
+
+            previousPath = tags;
+        }
+
+        /**
+         * Write an inserted tag and its content.
+         *
+         * @param tag the tag
+         * @throws IOException
+         */
+        private void writeTag (Tag tag) throws IOException
+        {
+            writeName(tag.name);
+            writeString(tag.getValue());
+
+            writeNumber(out, tag.attributes.size());
+            for (Tag attr : tag.attributes)
+            {
+                writeName(attr.name);
+                writeString(attr.getValue());
+            }
+
+            writeNumber(out, tag.childTags.size());
+            for (Tag childTag : tag.childTags)
+            {
+                writeTag(childTag);
+            }
+        }
+
+        /**
+         * Write a name: its index, followed by the name the first time it is written.
+         *
+         * @param name the name
+         * @throws IOException
+         */
+        private void writeName (String name) throws IOException
+        {
+            Integer index = nameIndexes.get(name);
+            if (index != null)
+            {
+                writeNumber(out, index);
+                return;
+            }
+
+            index = nameIndexes.size();
+            nameIndexes.put(name, index);
+
+            writeNumber(out, index);
+            writeString(name);
+        }
+
+        /**
+         * Write a String, as its number of UTF-8 bytes followed by the bytes.
+         *
+         * @param value the String
+         * @throws IOException
+         */
+        private void writeString (String value) throws IOException
+        {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeNumber(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+}
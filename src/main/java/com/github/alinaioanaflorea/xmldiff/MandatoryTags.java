@@ -0,0 +1,437 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds the mandatory tags, compiled so that checking if a tag is mandatory costs the same whatever the number of mandatory tags.
+ *
+ * A mandatory tag is given by its name, or by a path with a path attribute, eg: <tag path="person/first"/>. The paths can be:
+ * - relative to the root tag: person/first is a first tag of a person tag of the root tag
+ * - absolute: /book/person/first is the same tag, if the root tag is book
+ * - anywhere: //kid/name is a name tag of a kid tag, at any level
+ * A * step matches any name. The attributes of a tag are on the path as its child tags, as their names are checked like the tag names.
+ *
+ * The paths are matched as the tags are compared, going down from the root tags: each level of tags has a Path, which knows which steps
+ * of the paths its child tags can match. The Paths are built once for each different set of steps and their child Paths are kept by name.
+ *
+ * The same file can declare the keys of the tags with a name, with a key attribute, eg: <person key="@id"/> or <animal key="name @kind"/>.
+ * A key is made of the values of the given attributes (@name) and child tags (name). Such entries are not mandatory tags.
+ * The sibling tags with the same key are matched with each other only, instead of with all the sibling tags with the same name.
+ */
+class MandatoryTags
+{
+    /**
+     * The path attribute, which gives a mandatory tag by its path instead of its name.
+     */
+    static final String PATH_ATTRIBUTE = "path";
+
+    /**
+     * The key attribute, which declares the key of the tags with a name.
+     */
+    static final String KEY_ATTRIBUTE = "key";
+
+    private static final String KEY_SEPARATOR = "\u0000";
+
+    /**
+     * The kinds of paths.
+     */
+    private static final int RELATIVE = 0;
+    private static final int ABSOLUTE = 1;
+    private static final int ANYWHERE = 2;
+
+    private static final String ANY_NAME = "*";
+
+    /**
+     * The names of the mandatory tags.
+     */
+    private final Set<String> names = new HashSet<String>();
+
+    /**
+     * The steps and the kind of each path.
+     */
+    private final List<String[]> pathSteps = new ArrayList<String[]>();
+    private final List<Integer> pathKinds = new ArrayList<Integer>();
+
+    /**
+     * The parts of the key of each tag name with a declared key: attribute names start with @, the others are child tag names.
+     */
+    private final Map<String, String[]> keys = new HashMap<String, String[]>();
+
+    /**
+     * The Paths built so far, by their steps.
+     */
+    private final ConcurrentMap<String, Path> paths = new ConcurrentHashMap<String, Path>();
+    private final AtomicInteger nrOfPaths = new AtomicInteger();
+
+    /**
+     * The Path of the root tags' parent.
+     */
+    private final Path documentPath;
+
+    /**
+     * The steps of the paths which the child tags of a tag can match.
+     */
+    final class Path
+    {
+        /**
+         * Identifies the Path: the same steps of the paths give the same id.
+         */
+        final int id;
+
+        /**
+         * Specifies if the tag with this Path is mandatory by its path.
+         */
+        private final boolean isPathMatched;
+
+        /**
+         * The next step of each path, as the path's index in the high bits and the step's index in the low bits.
+         */
+        private final long[] steps;
+
+        private final boolean isDocument;
+
+        private final ConcurrentMap<String, Path> childPaths = new ConcurrentHashMap<String, Path>();
+
+        private Path (long[] steps, boolean isPathMatched, boolean isDocument)
+        {
+            this.id = nrOfPaths.getAndIncrement();
+            this.steps = steps;
+            this.isPathMatched = isPathMatched;
+            this.isDocument = isDocument;
+        }
+
+        /**
+         * Get the Path of a child tag.
+         *
+         * @param name the name of the child tag
+         * @return the Path of the child tag
+         */
+        Path getChild (String name)
+        {
+            if (pathSteps.isEmpty())
+            {
+                return this; // Only names, the path doesn't matter
+            }
+
+            Path childPath = childPaths.get(name);
+            if (childPath == null)
+            {
+                childPath = newChildPath(this, name);
+
+                Path otherPath = childPaths.putIfAbsent(name, childPath);
+                if (otherPath != null)
+                {
+                    childPath = otherPath;
+                }
+            }
+
+            return childPath;
+        }
+    }
+
+    /**
+     * Compile the mandatory tags.
+     *
+     * @param mandatoryTags the mandatory tags, as the child tags of the root tag of the mandatory tags file
+     * @throws IllegalArgumentException if a path or a key is not valid
+     */
+    MandatoryTags (List<Tag> mandatoryTags)
+    {
+        for (Tag mandTag : mandatoryTags)
+        {
+            String path = getAttribute(mandTag, PATH_ATTRIBUTE);
+            String key = getAttribute(mandTag, KEY_ATTRIBUTE);
+
+            if (key != null)
+            {
+                addKey(mandTag.name, key.trim());
+            }
+            else if (path != null)
+            {
+                addPath(path.trim());
+            }
+            else
+            {
+                names.add(mandTag.name);
+            }
+        }
+
+        documentPath = new Path(new long[0], false, true);
+    }
+
+    /**
+     * Get the Path of the root tags' parent.
+     *
+     * @return the Path with which the root tags are checked
+     */
+    Path getDocumentPath ()
+    {
+        return documentPath;
+    }
+
+    /**
+     * Check if a tag is mandatory.
+     *
+     * @param parentPath the Path of the tag's parent
+     * @param tagName the name of the tag
+     * @return true if the tag's name or its path is a mandatory tag, else false
+     */
+    boolean isMandatory (Path parentPath, String tagName)
+    {
+        return names.contains(tagName) || parentPath.getChild(tagName).isPathMatched;
+    }
+
+    /**
+     * Check if keys are declared for some tag names.
+     *
+     * @return true if at least a key is declared, else false
+     */
+    boolean hasKeys ()
+    {
+        return !keys.isEmpty();
+    }
+
+    /**
+     * Get the key of a tag.
+     *
+     * @param tag the tag
+     * @return the tag's name followed by the values of its key, or null if no key is declared for its name or the tag misses a part of the key
+     */
+    String getKey (Tag tag)
+    {
+        String[] keyParts = keys.get(tag.name);
+        if (keyParts == null)
+        {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(tag.name);
+        for (String keyPart : keyParts)
+        {
+            String value = keyPart.startsWith("@") ? getAttribute(tag, keyPart.substring(1)) : getChildValue(tag, keyPart);
+            if (value == null)
+            {
+                return null;
+            }
+
+            key.append(KEY_SEPARATOR).append(value);
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Get the value of an attribute of a tag.
+     *
+     * @param tag the tag
+     * @param name the name of the attribute
+     * @return the value of the attribute, or null if the tag doesn't have it
+     */
+    private static String getAttribute (Tag tag, String name)
+    {
+        for (Tag attribute : tag.attributes)
+        {
+            if (attribute.name.equals(name))
+            {
+                return attribute.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the value of the first child tag of a tag, with a name.
+     *
+     * @param tag the tag
+     * @param name the name of the child tag
+     * @return the value of the child tag, or null if the tag doesn't have it
+     */
+    private static String getChildValue (Tag tag, String name)
+    {
+        for (Tag childTag : tag.childTags)
+        {
+            if (childTag.name.equals(name))
+            {
+                return childTag.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Declare the key of the tags with a name.
+     *
+     * @param name the tag name
+     * @param key the attribute names, starting with @, and the child tag names which make the key
+     * @throws IllegalArgumentException if the key is empty
+     */
+    private void addKey (String name, String key)
+    {
+        if (key.isEmpty())
+        {
+            throw new IllegalArgumentException("Not a valid key for the \"" + name + "\" tags: \"" + key + "\"");
+        }
+
+        keys.put(name, key.split("[\\s,]+"));
+    }
+
+    /**
+     * Add a path to the mandatory tags.
+     *
+     * @param path the path
+     * @throws IllegalArgumentException if the path is not valid
+     */
+    private void addPath (String path)
+    {
+        int kind = RELATIVE;
+        String steps = path;
+
+        if (path.startsWith("//"))
+        {
+            kind = ANYWHERE;
+            steps = path.substring(2);
+        }
+        else if (path.startsWith("/"))
+        {
+            kind = ABSOLUTE;
+            steps = path.substring(1);
+        }
+
+        String[] stepNames = steps.split("/", -1);
+        for (String stepName : stepNames)
+        {
+            if (stepName.isEmpty())
+            {
+                throw new IllegalArgumentException("Not a valid mandatory tag path: \"" + path + "\"");
+            }
+        }
+
+        pathSteps.add(stepNames);
+        pathKinds.add(kind);
+    }
+
+    /**
+     * Build the Path of a child tag, or get it if it was built before for another tag.
+     *
+     * @param parentPath the Path of the tag's parent
+     * @param name the name of the tag
+     * @return the Path of the tag
+     */
+    private Path newChildPath (Path parentPath, String name)
+    {
+        TreeSet<Long> steps = new TreeSet<Long>();
+        boolean isPathMatched = false;
+
+        // Paths that go on with the tag
+        for (long step : parentPath.steps)
+        {
+            int pathIndex = (int)(step >>> 32);
+            int stepIndex = (int)step;
+
+            if (isStepMatched(pathIndex, stepIndex, name))
+            {
+                isPathMatched |= addStep(steps, pathIndex, stepIndex+1);
+            }
+        }
+
+        int nrOfPaths = pathSteps.size();
+        for (int i = 0; i < nrOfPaths; i++)
+        {
+            int kind = pathKinds.get(i);
+
+            // Paths that start with the tag
+            if (kind == ANYWHERE || (kind == ABSOLUTE && parentPath.isDocument))
+            {
+                if (isStepMatched(i, 0, name))
+                {
+                    isPathMatched |= addStep(steps, i, 1);
+                }
+            }
+
+            // Paths that start with the child tags of the root tag
+            if (kind == RELATIVE && parentPath.isDocument)
+            {
+                addStep(steps, i, 0);
+            }
+        }
+
+        long[] childSteps = new long[steps.size()];
+        int i = 0;
+        for (long step : steps)
+        {
+            childSteps[i++] = step;
+        }
+
+        // Tags with the same steps share the Path, and its child Paths
+        String key = isPathMatched + Arrays.toString(childSteps);
+
+        Path childPath = paths.get(key);
+        if (childPath == null)
+        {
+            childPath = new Path(childSteps, isPathMatched, false);
+
+            Path otherPath = paths.putIfAbsent(key, childPath);
+            if (otherPath != null)
+            {
+                childPath = otherPath;
+            }
+        }
+
+        return childPath;
+    }
+
+    /**
+     * Check if a step of a path matches a tag name.
+     *
+     * @param pathIndex the index of the path
+     * @param stepIndex the index of the step
+     * @param name the tag name
+     * @return true if the step matches the name, else false
+     */
+    private boolean isStepMatched (int pathIndex, int stepIndex, String name)
+    {
+        String stepName = pathSteps.get(pathIndex)[stepIndex];
+        return stepName.equals(ANY_NAME) || stepName.equals(name);
+    }
+
+    /**
+     * Add the next step of a path, if the path isn't complete.
+     *
+     * @param steps the next steps of the paths
+     * @param pathIndex the index of the path
+     * @param stepIndex the index of the next step
+     * @return true if the path is complete, else false
+     */
+    private boolean addStep (TreeSet<Long> steps, int pathIndex, int stepIndex)
+    {
+        if (stepIndex == pathSteps.get(pathIndex).length)
+        {
+            return true;
+        }
+
+        steps.add( ((long)pathIndex << 32) | stepIndex );
+        return false;
+    }
+}
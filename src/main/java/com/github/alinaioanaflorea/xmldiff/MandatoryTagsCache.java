@@ -0,0 +1,96 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.io.File;
+
+/**
+ * This class keeps the mandatory tags read from the mandatoryTags.xml files, so that the diffs run in the same JVM read a file only once.
+ * The MandatoryTags are only read by the diffs, so they are shared by the diffs run at the same time.
+ * A file is read again if it was changed.
+ */
+class MandatoryTagsCache
+{
+    /**
+     * The mandatory tags used by the diffs without a mandatoryTags.xml.
+     */
+    static final MandatoryTags NO_MANDATORY_TAGS = new MandatoryTags(new ArrayList<Tag>());
+
+    /**
+     * The mandatory tags read from a file, with the time of the last modification and the length the file had.
+     */
+    private static class CachedMandatoryTags
+    {
+        final long lastModified;
+        final long length;
+        final MandatoryTags mandatoryTags;
+
+        CachedMandatoryTags (long lastModified, long length, MandatoryTags mandatoryTags)
+        {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.mandatoryTags = mandatoryTags;
+        }
+    }
+
+    /**
+     * The mandatory tags, by the path of their file. There is one entry for each file, replaced when the file is changed.
+     */
+    private static final ConcurrentMap<String, CachedMandatoryTags> mandatoryTagsByFile = new ConcurrentHashMap<String, CachedMandatoryTags>();
+
+    /**
+     * Get the mandatory tags of a file, read once for all the diffs using it.
+     *
+     * @param processXml the ProcessXml reading the file, if it isn't read yet
+     * @param filePath the path to the mandatoryTags.xml, or an empty string for none
+     * @return the mandatory tags
+     * @throws Exception if the file can't be read, or its mandatory tags are not valid
+     */
+    static MandatoryTags get (ProcessXml processXml, String filePath) throws Exception
+    {
+        if (filePath.isEmpty())
+        {
+            return NO_MANDATORY_TAGS;
+        }
+
+        File file = new File(filePath).getAbsoluteFile();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        CachedMandatoryTags cached = mandatoryTagsByFile.get(file.getPath());
+        if (cached == null || cached.lastModified != lastModified || cached.length != length)
+        {
+            // Read the file for the first time, or again as it was changed, replacing the old mandatory tags
+            cached = new CachedMandatoryTags(lastModified, length, read(processXml, filePath));
+            mandatoryTagsByFile.put(file.getPath(), cached);
+        }
+
+        return cached.mandatoryTags;
+    }
+
+    /**
+     * Read the mandatory tags of a file, without keeping them.
+     *
+     * @param processXml the ProcessXml reading the file
+     * @param filePath the path to the mandatoryTags.xml
+     * @return the mandatory tags
+     * @throws Exception if the file can't be read, or its mandatory tags are not valid
+     */
+    static MandatoryTags read (ProcessXml processXml, String filePath) throws Exception
+    {
+        List<Tag> tags = processXml.getTags(filePath);
+        return new MandatoryTags(!tags.isEmpty() ? tags.get(0).childTags : new ArrayList<Tag>()); // Exclude the root tag
+    }
+}
@@ -0,0 +1,305 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * This class holds values out of the Java heap, as UTF-8 bytes in a memory mapped temporary file.
+ * The values are appended while a file is loaded, then the file is mapped and the values are read as slices of it: only the values which are
+ * written to the output are turned into Strings, and two values are compared by their bytes.
+ */
+class MappedValues
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The temporary file is mapped in regions of this size, as a region can't be larger than 2GB. A value never spans two regions.
+     */
+    private static final int REGION_SIZE = 1 << 30;
+
+    private final File file;
+    private final FileChannel channel;
+
+    /**
+     * The values not yet written to the file.
+     */
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(1 << 16);
+    private long length = 0;
+
+    /**
+     * The mapped regions of the file, once all the values were added.
+     */
+    private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+
+    /**
+     * Constructor.
+     *
+     * @throws IOException
+     */
+    MappedValues () throws IOException
+    {
+        file = File.createTempFile("xmlDiff", ".values");
+        channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param value the value
+     * @return the offset of the value's bytes
+     * @throws IOException
+     */
+    long add (String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length > REGION_SIZE)
+        {
+            throw new IOException("A value of " + bytes.length + " bytes is too large to be mapped");
+        }
+
+        // The value starts the next region if it doesn't fit in the current one
+        long regionEnd = (length / REGION_SIZE + 1) * REGION_SIZE;
+        if (length + bytes.length > regionEnd)
+        {
+            write(new byte[(int)(regionEnd - length)]);
+        }
+
+        long offset = length;
+        write(bytes);
+
+        return offset;
+    }
+
+    /**
+     * Get the number of bytes added, with the padding at the end of the regions.
+     *
+     * @return the size of the values
+     */
+    long getSize ()
+    {
+        return length;
+    }
+
+    /**
+     * Map the values, once all of them were added. The temporary file is deleted, the mapped regions stay valid until they are collected.
+     *
+     * @throws IOException
+     */
+    void map () throws IOException
+    {
+        flush();
+
+        for (long position = 0; position < length; position += REGION_SIZE)
+        {
+            regions.add( channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, length - position)) );
+        }
+
+        close();
+    }
+
+    /**
+     * Close and delete the temporary file, once the values are mapped or if the load failed. It can be called more than once.
+     *
+     * @throws IOException
+     */
+    void close () throws IOException
+    {
+        try
+        {
+            channel.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Read a value as a String.
+     *
+     * @param offset the offset of the value's bytes
+     * @param nrOfBytes the number of bytes of the value
+     * @return the value
+     */
+    String getString (long offset, int nrOfBytes)
+    {
+        if (nrOfBytes == 0)
+        {
+            return ""; // No region is mapped if all the values are empty
+        }
+
+        ByteBuffer region = ((ByteBuffer)regions.get((int)(offset / REGION_SIZE))).duplicate();
+
+        // Through Buffer, whose methods return a Buffer on all the Java versions
+        Buffer slice = region;
+        slice.position((int)(offset % REGION_SIZE));
+        slice.limit(slice.position() + nrOfBytes);
+
+        return UTF_8.decode(region).toString();
+    }
+
+    /**
+     * Compare a value with a value of another MappedValues, byte by byte.
+     *
+     * @param offset the offset of the value's bytes
+     * @param values the MappedValues of the other value
+     * @param otherOffset the offset of the other value's bytes
+     * @param nrOfBytes the number of bytes of both values
+     * @return true if the values are the same, else false
+     */
+    boolean equals (long offset, MappedValues values, long otherOffset, int nrOfBytes)
+    {
+        if (nrOfBytes == 0)
+        {
+            return true; // No region is mapped if all the values are empty
+        }
+
+        ByteBuffer region = regions.get((int)(offset / REGION_SIZE));
+        ByteBuffer otherRegion = values.regions.get((int)(otherOffset / REGION_SIZE));
+
+        int position = (int)(offset % REGION_SIZE);
+        int otherPosition = (int)(otherOffset % REGION_SIZE);
+
+        for (int i = 0; i < nrOfBytes; i++)
+        {
+            if (region.get(position + i) != otherRegion.get(otherPosition + i))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Map a file for reading, in regions of at most 1GB.
+     *
+     * @param filePath the path to a file
+     * @return the mapped regions of the file, in their order
+     * @throws IOException
+     */
+    static List<MappedByteBuffer> mapFile (String filePath) throws IOException
+    {
+        List<MappedByteBuffer> fileRegions = new ArrayList<MappedByteBuffer>();
+
+        RandomAccessFile mappedFile = new RandomAccessFile(filePath, "r");
+        try
+        {
+            FileChannel fileChannel = mappedFile.getChannel();
+            long fileLength = fileChannel.size();
+
+            for (long position = 0; position < fileLength; position += REGION_SIZE)
+            {
+                fileRegions.add( fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, fileLength - position)) );
+            }
+        }
+        finally
+        {
+            mappedFile.close(); // The mapped regions stay valid
+        }
+
+        return fileRegions;
+    }
+
+    /**
+     * Open a memory mapped file for reading.
+     *
+     * @param filePath the path to a file
+     * @return a stream reading the mapped file
+     * @throws IOException
+     */
+    static InputStream openMappedFile (String filePath) throws IOException
+    {
+        final List<MappedByteBuffer> fileRegions = mapFile(filePath);
+
+        return new InputStream()
+        {
+            private int region = 0;
+
+            @Override
+            public int read ()
+            {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read (byte[] b, int off, int len)
+            {
+                while (region < fileRegions.size() && !fileRegions.get(region).hasRemaining())
+                {
+                    region++;
+                }
+
+                if (region == fileRegions.size())
+                {
+                    return -1;
+                }
+
+                ByteBuffer buffer = fileRegions.get(region);
+                int nrOfBytes = Math.min(len, buffer.remaining());
+                buffer.get(b, off, nrOfBytes);
+
+                return nrOfBytes;
+            }
+        };
+    }
+
+    /**
+     * Append bytes to the file, through the write buffer.
+     *
+     * @param bytes the bytes
+     * @throws IOException
+     */
+    private void write (byte[] bytes) throws IOException
+    {
+        int written = 0;
+        while (written < bytes.length)
+        {
+            if (!writeBuffer.hasRemaining())
+            {
+                flush();
+            }
+
+            int nrOfBytes = Math.min(writeBuffer.remaining(), bytes.length - written);
+            writeBuffer.put(bytes, written, nrOfBytes);
+            written += nrOfBytes;
+        }
+
+        length += bytes.length;
+    }
+
+    /**
+     * Write the write buffer to the file.
+     *
+     * @throws IOException
+     */
+    private void flush () throws IOException
+    {
+        ((Buffer)writeBuffer).flip();
+        while (writeBuffer.hasRemaining())
+        {
+            channel.write(writeBuffer);
+        }
+        ((Buffer)writeBuffer).clear();
+    }
+}
@@ -12,6 +12,18 @@ package com.github.alinaioanaflorea.xmldiff;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class can match the content of two ArrayLists of Tag structures and return an ArrayList with their differences and mandatory tags.
@@ -19,9 +31,108 @@ import java.util.ArrayList;
 public class MatchXml extends ProcessXml
 {
     /**
-     * The list of mandatory tags.
+     * The mandatory tags.
      */
-    private List<Tag> mandatoryTags;
+    private MandatoryTags mandatoryTags;
+
+    /**
+     * The cache with the differences of the pairs of tags compared so far, or null if disabled.
+     */
+    private Map<MatchKey, CachedMatch> matchCache;
+
+    /**
+     * The cache kept between the diffs, if this MatchXml shares the cache of another one. Else null.
+     */
+    private Map<MatchKey, CachedMatch> sharedMatchCache;
+
+    /**
+     * The System.nanoTime after which the levels of tags are matched approximately, if hasDeadline.
+     */
+    private long deadline;
+    private boolean hasDeadline;
+
+    /**
+     * The number of tag pairs which can still be compared by the diff, if xmlDiff.comparisonBudget is given.
+     */
+    private final AtomicLong remainingBudget = new AtomicLong();
+
+    /**
+     * The number of levels of tags matched approximately during the last diff.
+     */
+    private final AtomicInteger nrOfApproximateLevels = new AtomicInteger();
+
+    /**
+     * The metrics of the diff, or null if they are not collected.
+     */
+    private DiffMetrics metrics;
+
+    /**
+     * The pool which compares tags in parallel, or null if they are compared sequentially.
+     */
+    private ForkJoinPool forkJoinPool;
+
+    /**
+     * The number of comparisons found or not in the cache, during the last diff.
+     */
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+
+    /**
+     * Identifies the comparison of two tags by their fingerprints, and their level and path as they are part of their difference.
+     */
+    private static final class MatchKey
+    {
+        private final long fingerprint1;
+        private final long fingerprint2;
+        private final int tagLevel;
+        private final int pathId;
+
+        MatchKey (long fingerprint1, long fingerprint2, int tagLevel, int pathId)
+        {
+            this.fingerprint1 = fingerprint1;
+            this.fingerprint2 = fingerprint2;
+            this.tagLevel = tagLevel;
+            this.pathId = pathId;
+        }
+
+        @Override
+        public boolean equals (Object object)
+        {
+            if (!(object instanceof MatchKey))
+            {
+                return false;
+            }
+
+            MatchKey key = (MatchKey)object;
+            return fingerprint1 == key.fingerprint1 && fingerprint2 == key.fingerprint2 && tagLevel == key.tagLevel && pathId == key.pathId;
+        }
+
+        @Override
+        public int hashCode ()
+        {
+            long hash = fingerprint1 * 31 + fingerprint2;
+            return ((int)(hash ^ (hash >>> 32)) * 31 + tagLevel) * 31 + pathId;
+        }
+    }
+
+    /**
+     * The difference of two compared tags and how it changed its parent tag.
+     */
+    private static final class CachedMatch
+    {
+        private final Tag diffTag;
+        private final boolean parentChanged;
+        private final boolean parentModified;
+        private final boolean parentChildTagMandatory;
+
+        CachedMatch (Tag diffTag, boolean parentChanged, boolean parentModified, boolean parentChildTagMandatory)
+        {
+            this.diffTag = diffTag;
+            this.parentChanged = parentChanged;
+            this.parentModified = parentModified;
+            this.parentChildTagMandatory = parentChildTagMandatory;
+        }
+    }
 
     /**
      * Get the differences and similarities between two Tag lists while keeping the mandatoryTags.
@@ -32,14 +143,174 @@ public class MatchXml extends ProcessXml
      * @return a list with the mandatory Tags, differences and similarities between the two input Tag lists
      */
     public List<Tag> GetTagDiff (List<Tag> tags1, List<Tag> tags2, List<Tag> mandatoryTags)
+    {
+        return GetTagDiff(tags1, tags2, new MandatoryTags(!mandatoryTags.isEmpty() ? mandatoryTags.get(0).childTags : new ArrayList<Tag>())); // Exclude the root tag
+    }
+
+    /**
+     * Get the differences and similarities between two Tag lists while keeping the mandatoryTags.
+     * The MandatoryTags are only read, so they can be shared by the diffs run at the same time.
+     *
+     * @param tags1 the first tag list to compare
+     * @param tags2 the second tag list to compare
+     * @param mandatoryTags the mandatory tags
+     * @return a list with the mandatory Tags, differences and similarities between the two input Tag lists
+     */
+    List<Tag> GetTagDiff (List<Tag> tags1, List<Tag> tags2, MandatoryTags mandatoryTags)
+    {
+        if (!XmlDiff.isMetrics)
+        {
+            metrics = null;
+            return getRootTagDiff(tags1, tags2, mandatoryTags);
+        }
+
+        metrics = DiffMetrics.getInstance();
+
+        long startWallTime = System.nanoTime();
+        long startCpuTime = DiffMetrics.getCpuTime();
+        try
+        {
+            return getRootTagDiff(tags1, tags2, mandatoryTags);
+        }
+        finally
+        {
+            metrics.addTime(DiffMetrics.DIFF, startWallTime, startCpuTime);
+        }
+    }
+
+    /**
+     * Get the differences and similarities between two Tag lists while keeping the mandatoryTags, without measuring it.
+     *
+     * @param tags1 the first tag list to compare
+     * @param tags2 the second tag list to compare
+     * @param mandatoryTags the mandatory tags
+     * @return a list with the mandatory Tags, differences and similarities between the two input Tag lists
+     */
+    private List<Tag> getRootTagDiff (List<Tag> tags1, List<Tag> tags2, MandatoryTags mandatoryTags)
     {
         // Set the mandatory tags
-        this.mandatoryTags = !mandatoryTags.isEmpty() ? mandatoryTags.get(0).childTags : new ArrayList<Tag>(); // Exclude the root tag
+        this.mandatoryTags = mandatoryTags;
+        final MandatoryTags.Path documentPath = mandatoryTags.getDocumentPath();
 
-        Tag changes = new Tag();
+        // Set the cache for the compared tags, if enabled. The difference of two tags depends only on their content, level and path, so it is shared by all the comparisons.
+        // It is not used with a comparison budget or a deadline: a cached difference takes nothing from the budget, so the levels compared after it would be matched
+        // differently than without the cache.
+        boolean isBounded = XmlDiff.comparisonBudget > 0 || XmlDiff.deadlineMillis > 0;
+        matchCache = isBounded ? null : (sharedMatchCache != null ? sharedMatchCache : (XmlDiff.matchCacheSize > 0 ? newMatchCache(XmlDiff.matchCacheSize) : null));
+        cacheHits = 0;
+        cacheMisses = 0;
+
+        // Set the deadline of the diff, if given
+        hasDeadline = XmlDiff.deadlineMillis > 0;
+        deadline = System.nanoTime() + XmlDiff.deadlineMillis * 1000000L;
+        remainingBudget.set(XmlDiff.comparisonBudget);
+        nrOfApproximateLevels.set(0);
+
+        final Tag changes = new Tag();
         changes.tagLevel = 1; // The root tags represent the 1st row/level of tags
 
-        return getTagDiff(tags1, tags2, true, changes, false);
+        if (XmlDiff.parallelism <= 1)
+        {
+            List<Tag> tagDiff = getTagDiff(tags1, tags2, true, changes, false, documentPath);
+
+            matchCache = null; // Free the cached differences
+            return tagDiff;
+        }
+
+        // Compare in parallel
+        forkJoinPool = new ForkJoinPool(XmlDiff.parallelism);
+        try
+        {
+            final List<Tag> rootTags1 = tags1;
+            final List<Tag> rootTags2 = tags2;
+
+            return forkJoinPool.invoke(new RecursiveTask<List<Tag>>()
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected List<Tag> compute ()
+                {
+                    return getTagDiff(rootTags1, rootTags2, true, changes, false, documentPath);
+                }
+            });
+        }
+        finally
+        {
+            forkJoinPool.shutdown();
+            forkJoinPool = null;
+            matchCache = null;
+        }
+    }
+
+    /**
+     * Use the cache of the compared tags of another MatchXml, which is kept between the diffs.
+     * The cache is shared by the MatchXml diffing the same first Tag list with the same mandatory tags, eg: one baseline with many documents,
+     * so that the tags compared by one of them are not compared again by the others. It is used only if -DxmlDiff.matchCacheSize is given.
+     *
+     * @param matchXml the MatchXml owning the cache, which can be this one
+     */
+    void useMatchCacheOf (MatchXml matchXml)
+    {
+        synchronized (matchXml)
+        {
+            if (matchXml.sharedMatchCache == null && XmlDiff.matchCacheSize > 0)
+            {
+                matchXml.sharedMatchCache = newMatchCache(XmlDiff.matchCacheSize);
+            }
+
+            sharedMatchCache = matchXml.sharedMatchCache;
+        }
+    }
+
+    /**
+     * Get the number of levels of sibling tags which were matched approximately during the last diff, as they exceeded xmlDiff.comparisonBudget or xmlDiff.deadlineMillis.
+     *
+     * @return the number of approximate levels
+     */
+    public int getNrOfApproximateLevels ()
+    {
+        return nrOfApproximateLevels.get();
+    }
+
+    /**
+     * Get the number of comparisons which were found in the cache during the last diff.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHits ()
+    {
+        return cacheHits;
+    }
+
+    /**
+     * Get the number of comparisons which were not found in the cache during the last diff.
+     *
+     * @return the number of cache misses
+     */
+    public long getCacheMisses ()
+    {
+        return cacheMisses;
+    }
+
+    /**
+     * Build a cache which evicts the least recently used difference once it holds maxSize differences.
+     *
+     * @param maxSize the maximum number of differences kept in the cache
+     * @return the empty cache
+     */
+    private static Map<MatchKey, CachedMatch> newMatchCache (final int maxSize)
+    {
+        return new LinkedHashMap<MatchKey, CachedMatch>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<MatchKey, CachedMatch> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
     }
 
     /**
@@ -50,9 +321,10 @@ public class MatchXml extends ProcessXml
      * @param rootEntry specifies if the current level of tags are at root level
      * @param changes stores the changes for the current level of tags
      * @param isAttribute specifies if the content of an attribute is being processed now
+     * @param parentPath the path of the parent of the current level of tags
      * @return a list with the mandatory Tags, differences and similarities between the two input Tag lists
      */
-    private List<Tag> getTagDiff (List<Tag> tags1, List<Tag> tags2, boolean rootEntry, Tag changes, boolean isAttribute)
+    private List<Tag> getTagDiff (List<Tag> tags1, List<Tag> tags2, boolean rootEntry, Tag changes, boolean isAttribute, MandatoryTags.Path parentPath)
     {
         List<Tag> diffTags = new ArrayList<Tag>();
 
@@ -68,139 +340,1105 @@ public class MatchXml extends ProcessXml
         {
             changes.childTagChanged = true; 
             
-            for (Tag tag : tags2)
+            for (int j = 0; j < tags2Size; j++)
             {
-                boolean isMandatory = isMandatory(tag.name);                
+                Tag tag = tags2.get(j);
+                boolean isMandatory = mandatoryTags.isMandatory(parentPath, tag.name);
                 if (isMandatory)
                 {
                     changes.childTagMandatory = true; 
                 }
              
-                diffTags.add( new Tag(0, tag.name, Tag.NOT_MATCHED, tag.attributes, Tag.NOT_MATCHED, tag.value, tag.childTags, Tag.NOT_MATCHED, "N", false, isMandatory, false, changes.tagLevel, 0, 0) );
+                diffTags.add( new Tag(0, tag.name, Tag.NOT_MATCHED, tag.attributes, Tag.NOT_MATCHED, tag.getValue(), tag.childTags, Tag.NOT_MATCHED, "N", false, isMandatory, false, changes.tagLevel, 0, j) );
             }
         }
         else if (tags2Size == 0)
         {
             changes.childTagChanged = true;
              
-            for (Tag tag : tags1)
+            for (int i = 0; i < tags1Size; i++)
             {
-                diffTags.add( new Tag(0, tag.name, Tag.NOT_MATCHED, tag.attributes, Tag.NOT_MATCHED, tag.value, tag.childTags, Tag.NOT_MATCHED, "D", false, isMandatory(tag.name), false, changes.tagLevel, 0, 0) );
+                Tag tag = tags1.get(i);
+                diffTags.add( new Tag(0, tag.name, Tag.NOT_MATCHED, tag.attributes, Tag.NOT_MATCHED, tag.getValue(), tag.childTags, Tag.NOT_MATCHED, "D", false, mandatoryTags.isMandatory(parentPath, tag.name), false, changes.tagLevel, i, 0) );
             }        
         }
 
-        // Both sides have records    
-        for (int i = 0; i < tags1Size; i++)
-        {      
-            Tag tag1 = tags1.get(i);
+        if (XmlDiff.isOrderedMatching && !rootEntry && !isAttribute && tags1Size != 0 && tags2Size != 0)
+        {
+            return getOrderedTagDiff(tags1, tags2, changes, parentPath);
+        }
+
+        // The matching state of this level of tags, the input tags are not changed
+        Siblings siblings = new Siblings(tags1, tags2, rootEntry, isAttribute, parentPath);
+
+        // Both sides have records    
+        int firstTag = 0;
+        int nrOfPairs = 0;
+        if (!rootEntry && !isAttribute && isApproximated(siblings))
+        {
+            // Too many pairs to compare, or no time left: the tags are paired by their content, then in their order
+            nrOfApproximateLevels.incrementAndGet();
+            changes.isApproximate = true;
+
+            nrOfPairs = addApproximateTagDiff(diffTags, siblings, changes);
+            firstTag = tags1Size;
+        }
+        else if (forkJoinPool != null && !rootEntry && !isAttribute && tags1Size >= XmlDiff.parallelThreshold)
+        {
+            // The tags with different names are compared with different tags, so they are compared in parallel, all but the last one
+            nrOfPairs = compareTagsInParallel(diffTags, siblings, changes);
+            firstTag = tags1Size-1;
+        }
+
+        for (int i = firstTag; i < tags1Size; i++)
+        {      
+            Tag tag1 = tags1.get(i);
+
+            if (rootEntry || i == tags1Size-1)
+            {
+                // The root tags match whatever their names, and the last tag also marks the not matched tags from the second list as new, so they go through all the tags
+                boolean isMatched1 = false;
+                String key1 = siblings.getKey1(i);
+
+                for (int j = 0; j < tags2Size; j++)
+                {
+                    Tag tag2 = tags2.get(j);
+                    if (siblings.matchPercents2[j] == 100 && j != tags2Size-1)
+                    {
+                        continue;
+                    }
+
+                    if (rootEntry || siblings.isCompared(tag1, key1, j))
+                    {
+                        isMatched1 = true;
+                        siblings.addMatch(j, addTagMatch(diffTags, tag1, tag2, i, j, changes, isAttribute, parentPath));
+                        nrOfPairs++;
+                    }    
+                    else // No match
+                    {                                     
+                        if (i == tags1Size-1 && !siblings.isMatched2[j]) // Not matched and in a last looping case
+                        {                           
+                            siblings.isMatched2[j] = true;
+                            changes.childTagChanged = true;                                        
+                            
+                            boolean isMandatory = mandatoryTags.isMandatory(parentPath, tag2.name);
+                            if (isMandatory)
+                            {
+                                changes.childTagMandatory = true; 
+                            }
+                            
+                            diffTags.add( new Tag(0, tag2.name, Tag.NOT_MATCHED, tag2.attributes, Tag.NOT_MATCHED, tag2.getValue(), tag2.childTags, Tag.NOT_MATCHED, "N", false, isMandatory, false, changes.tagLevel, 0, j) );
+                        }
+                        
+                        if (j == tags2Size-1 && !isMatched1) // Not matched and in a last looping case
+                        {
+                            addDeletedTag(diffTags, tag1, i, changes, parentPath);
+                        }
+                    }
+
+                    if (siblings.matchPercents2[j] == 100 && i != tags1Size-1)
+                    {
+                        break;
+                    }
+
+                } // for 2
+            }
+            else
+            {
+                nrOfPairs += compareTag(diffTags, siblings, i, changes, isAttribute);
+            }
+
+        } // for 1
+
+        if (metrics == null)
+        {
+            // Match/filter the tags in diffTags
+            return matchTags(diffTags, tags1, tags2);
+        }
+
+        if (!isAttribute)
+        {
+            metrics.addComparedPairs(changes.tagLevel, rootEntry ? null : changes.name, nrOfPairs);
+        }
+
+        long startWallTime = System.nanoTime();
+        long startCpuTime = DiffMetrics.getCpuTime();
+        try
+        {
+            return matchTags(diffTags, tags1, tags2);
+        }
+        finally
+        {
+            metrics.addTime(DiffMetrics.MATCH_TAGS, startWallTime, startCpuTime);
+        }
+    }
+
+    /**
+     * The matching state of two lists of sibling Tags being compared, kept apart from the Tags so that they are not changed by the comparison.
+     */
+    private final class Siblings
+    {
+        final List<Tag> tags1;
+        final List<Tag> tags2;
+
+        /**
+         * The path of the parent of the tags.
+         */
+        final MandatoryTags.Path parentPath;
+
+        /**
+         * The positions of the tags from the second list, by their names. Null for the root tags, which match whatever their names.
+         */
+        final Map<String, List<Integer>> tags2ByName;
+
+        /**
+         * The keys of the tags from the second list and their positions by key, if keys are declared and these are not the root tags or attributes.
+         * A tag from the first list with a key is compared only with the tags with the same key, else with the tags with its name.
+         */
+        private final String[] keys2;
+        private final Map<String, List<Integer>> tags2ByKey;
+
+        /**
+         * The highest matching percentage found so far for each tag from the second list, and if it was matched or marked as new.
+         * Each position is changed by the comparisons of the tags with its name only, so the tags with different names can be compared in parallel.
+         */
+        final int[] matchPercents2;
+        final boolean[] isMatched2;
+
+        Siblings (List<Tag> tags1, List<Tag> tags2, boolean rootEntry, boolean isAttribute, MandatoryTags.Path parentPath)
+        {
+            this.tags1 = tags1;
+            this.tags2 = tags2;
+            this.parentPath = parentPath;
+
+            // Index the tags from the second list by name, so that a tag from the first list is compared only with the tags having its name
+            tags2ByName = rootEntry ? null : indexByName(tags2);
+
+            // Index the tags from the second list by key, so that tags with a key are joined with the tags having the same key
+            if (!rootEntry && !isAttribute && mandatoryTags.hasKeys())
+            {
+                int tags2Size = tags2.size();
+                keys2 = new String[tags2Size];
+                tags2ByKey = new HashMap<String, List<Integer>>();
+
+                for (int j = 0; j < tags2Size; j++)
+                {
+                    keys2[j] = mandatoryTags.getKey(tags2.get(j));
+                    if (keys2[j] == null)
+                    {
+                        continue;
+                    }
+
+                    List<Integer> positions = tags2ByKey.get(keys2[j]);
+                    if (positions == null)
+                    {
+                        positions = new ArrayList<Integer>();
+                        tags2ByKey.put(keys2[j], positions);
+                    }
+
+                    positions.add(j);
+                }
+            }
+            else
+            {
+                keys2 = null;
+                tags2ByKey = null;
+            }
+
+            matchPercents2 = new int[tags2.size()];
+            isMatched2 = new boolean[tags2.size()];
+        }
+
+        /**
+         * Get the key of a tag from the first list.
+         *
+         * @param index1 the index of the tag in the first list
+         * @return the key of the tag, or null if it has no key
+         */
+        String getKey1 (int index1)
+        {
+            return keys2 != null ? mandatoryTags.getKey(tags1.get(index1)) : null;
+        }
+
+        /**
+         * Get the tags from the second list which are compared with a tag from the first list.
+         *
+         * @param tag1 the tag from the first list
+         * @param key1 the key of tag1, or null if it has no key
+         * @return the positions of the tags from the second list with the same key, or with the same name if tag1 has no key, or null if there are none
+         */
+        List<Integer> getComparedTags (Tag tag1, String key1)
+        {
+            return key1 != null ? tags2ByKey.get(key1) : tags2ByName.get(tag1.name);
+        }
+
+        /**
+         * Check if a tag from the second list is compared with a tag from the first list.
+         *
+         * @param tag1 the tag from the first list
+         * @param key1 the key of tag1, or null if it has no key
+         * @param index2 the index of the tag in the second list
+         * @return true if the tags have the same key, or the same name if tag1 has no key, else false
+         */
+        boolean isCompared (Tag tag1, String key1, int index2)
+        {
+            return key1 != null ? key1.equals(keys2[index2]) : tag1.hasSameName(tags2.get(index2));
+        }
+
+        /**
+         * Record a match of a tag from the second list.
+         *
+         * @param index2 the index of the tag in the second list
+         * @param contentMatchPercent the matching percentage of the match
+         */
+        void addMatch (int index2, int contentMatchPercent)
+        {
+            isMatched2[index2] = true;
+
+            if (matchPercents2[index2] < contentMatchPercent)
+            {
+                matchPercents2[index2] = contentMatchPercent;
+            }
+        }
+    }
+
+    /**
+     * Check if a level of sibling tags is matched approximately: if the deadline of the diff passed, or if it has more pairs of tags to compare than what is left of the comparison budget.
+     * Else its pairs are taken from the budget, so that the whole diff compares at most xmlDiff.comparisonBudget pairs, and the levels after them are matched approximately.
+     *
+     * @param siblings the lists of Tags being compared
+     * @return true if the tags are matched approximately, else false
+     */
+    private boolean isApproximated (Siblings siblings)
+    {
+        if (siblings.tags1.isEmpty() || siblings.tags2.isEmpty())
+        {
+            return false;
+        }
+
+        if (hasDeadline && System.nanoTime() - deadline > 0)
+        {
+            return true;
+        }
+
+        if (XmlDiff.comparisonBudget <= 0)
+        {
+            return false;
+        }
+
+        // Each tag from the first list is compared with the tags with its name, or its key, from the second list
+        long nrOfPairs = 0;
+        int tags1Size = siblings.tags1.size();
+
+        for (int i = 0; i < tags1Size; i++)
+        {
+            List<Integer> comparedTags = siblings.getComparedTags(siblings.tags1.get(i), siblings.getKey1(i));
+            if (comparedTags != null)
+            {
+                nrOfPairs += comparedTags.size();
+            }
+        }
+
+        return !takeFromBudget(nrOfPairs);
+    }
+
+    /**
+     * Take a number of tag pairs to compare from the comparison budget, if there are enough left.
+     *
+     * @param nrOfPairs the number of pairs to compare
+     * @return true if the pairs can be compared, else false
+     */
+    private boolean takeFromBudget (long nrOfPairs)
+    {
+        if (XmlDiff.comparisonBudget <= 0)
+        {
+            return true;
+        }
+
+        while (true)
+        {
+            long budget = remainingBudget.get();
+            if (nrOfPairs > budget)
+            {
+                return false;
+            }
+
+            if (remainingBudget.compareAndSet(budget, budget - nrOfPairs))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Match a level of sibling tags approximately, comparing each tag with at most one tag:
+     * first the tags with the same content are paired by their fingerprints, then the remaining tags with the same name, or key, are paired in their order.
+     * The paired tags with the same content are matched. The other pairs are compared while the comparison budget lasts and before the deadline, else they are deleted and new,
+     * so that the time left to the diff is spent only on the tags which didn't change. The tags which are not paired are deleted or new.
+     *
+     * @param diffTags the list with the matched tags of the current level of tags
+     * @param siblings the lists of Tags being compared
+     * @param changes stores the changes for the current level of tags
+     * @return the number of compared tag pairs
+     */
+    private int addApproximateTagDiff (List<Tag> diffTags, Siblings siblings, Tag changes)
+    {
+        List<Tag> tags1 = siblings.tags1;
+        List<Tag> tags2 = siblings.tags2;
+        int tags1Size = tags1.size();
+        int tags2Size = tags2.size();
+
+        int[] pairs1 = new int[tags1Size];
+        Arrays.fill(pairs1, -1);
+        boolean[] isPaired2 = new boolean[tags2Size];
+
+        // Pair the tags with the same content
+        Map<Long, List<Integer>> tags2ByFingerprint = new HashMap<Long, List<Integer>>();
+        for (int j = tags2Size-1; j >= 0; j--) // The last position is taken first, so the tags are paired in their order
+        {
+            long fingerprint = tags2.get(j).fingerprint;
+            if (fingerprint == Tag.NO_FINGERPRINT)
+            {
+                continue;
+            }
+
+            List<Integer> positions = tags2ByFingerprint.get(fingerprint);
+            if (positions == null)
+            {
+                positions = new ArrayList<Integer>();
+                tags2ByFingerprint.put(fingerprint, positions);
+            }
+
+            positions.add(j);
+        }
+
+        for (int i = 0; i < tags1Size; i++)
+        {
+            List<Integer> positions = tags2ByFingerprint.get(tags1.get(i).fingerprint);
+            if (positions != null && !positions.isEmpty())
+            {
+                pairs1[i] = positions.remove(positions.size()-1);
+                isPaired2[pairs1[i]] = true;
+            }
+        }
+
+        // Pair the remaining tags with the same name, or key, in their order
+        Map<List<Integer>, Integer> nextPositions = new IdentityHashMap<List<Integer>, Integer>();
+        for (int i = 0; i < tags1Size; i++)
+        {
+            List<Integer> comparedTags = pairs1[i] == -1 ? siblings.getComparedTags(tags1.get(i), siblings.getKey1(i)) : null;
+            if (comparedTags == null)
+            {
+                continue;
+            }
+
+            Integer next = nextPositions.get(comparedTags);
+            int k = next != null ? next : 0;
+
+            while (k < comparedTags.size() && isPaired2[comparedTags.get(k)])
+            {
+                k++;
+            }
+
+            if (k < comparedTags.size())
+            {
+                pairs1[i] = comparedTags.get(k);
+                isPaired2[pairs1[i]] = true;
+                k++;
+            }
+
+            nextPositions.put(comparedTags, k);
+        }
+
+        // Compare the paired tags
+        boolean isDeadlinePassed = hasDeadline && System.nanoTime() - deadline > 0;
+        int nrOfPairs = 0;
+
+        for (int i = 0; i < tags1Size; i++)
+        {
+            Tag tag1 = tags1.get(i);
+            int j = pairs1[i];
+
+            if (j == -1)
+            {
+                addDeletedTag(diffTags, tag1, i, changes, siblings.parentPath);
+            }
+            else if ((tag1.fingerprint != Tag.NO_FINGERPRINT && tag1.fingerprint == tags2.get(j).fingerprint) || (!isDeadlinePassed && takeFromBudget(1)))
+            {
+                addTagMatch(diffTags, tag1, tags2.get(j), i, j, changes, false, siblings.parentPath);
+                nrOfPairs++;
+            }
+            else
+            {
+                addDeletedTag(diffTags, tag1, i, changes, siblings.parentPath);
+                addNewTag(diffTags, tags2.get(j), j, changes, siblings.parentPath);
+            }
+        }
+
+        for (int j = 0; j < tags2Size; j++)
+        {
+            if (!isPaired2[j])
+            {
+                addNewTag(diffTags, tags2.get(j), j, changes, siblings.parentPath);
+            }
+        }
+
+        return nrOfPairs;
+    }
+
+    /**
+     * Compare a tag from the first list of Tags, but not the last one, with the tags with its name, or its key, from the second list of Tags.
+     * The tag is added as deleted if it matches none of them.
+     *
+     * @param diffTags the list with the matched tags of the current level of tags
+     * @param siblings the lists of Tags being compared and their matching state
+     * @param index1 the index of the tag in the first list of Tags
+     * @param changes stores the changes for the current level of tags
+     * @param isAttribute specifies if the content of an attribute is being processed now
+     * @return the number of tags compared with the tag
+     */
+    private int compareTag (List<Tag> diffTags, Siblings siblings, int index1, Tag changes, boolean isAttribute)
+    {
+        Tag tag1 = siblings.tags1.get(index1);
+        int tags2Size = siblings.tags2.size();
+        boolean isMatched1 = false;
+        int nrOfPairs = 0;
+
+        List<Integer> sameNameTags = siblings.getComparedTags(tag1, siblings.getKey1(index1));
+        if (sameNameTags != null)
+        {
+            for (int j : sameNameTags)
+            {
+                if (siblings.matchPercents2[j] == 100 && j != tags2Size-1)
+                {
+                    continue;
+                }
+
+                isMatched1 = true;
+                siblings.addMatch(j, addTagMatch(diffTags, tag1, siblings.tags2.get(j), index1, j, changes, isAttribute, siblings.parentPath));
+                nrOfPairs++;
+
+                if (siblings.matchPercents2[j] == 100)
+                {
+                    break;
+                }
+            }
+        }
+
+        if (tags2Size != 0 && !isMatched1) // Not matched by any tag with the same name
+        {
+            addDeletedTag(diffTags, tag1, index1, changes, siblings.parentPath);
+        }
+
+        return nrOfPairs;
+    }
+
+    /**
+     * Compare the tags from the first list of Tags, but the last one, with the tags with the same names from the second list of Tags, a task for each name.
+     * The tags with the same name are compared in their order, as which tags are compared depends on the previous matches. The differences are added in the order of the tags,
+     * so the result is the same as the one of comparing them one after the other.
+     *
+     * @param diffTags the list with the matched tags of the current level of tags
+     * @param siblings the lists of Tags being compared and their matching state
+     * @param changes stores the changes for the current level of tags
+     * @return the number of compared tag pairs
+     */
+    private int compareTagsInParallel (List<Tag> diffTags, Siblings siblings, Tag changes)
+    {
+        int nrOfTags = siblings.tags1.size()-1;
+
+        List<List<Tag>> tagsDiffTags = new ArrayList<List<Tag>>(nrOfTags);
+        for (int i = 0; i < nrOfTags; i++)
+        {
+            tagsDiffTags.add(null);
+        }
+
+        List<SameNameTagsTask> tasks = new ArrayList<SameNameTagsTask>();
+        for (List<Integer> sameNameTags : indexByName(siblings.tags1.subList(0, nrOfTags)).values())
+        {
+            tasks.add( new SameNameTagsTask(sameNameTags, siblings, changes.tagLevel, tagsDiffTags) );
+        }
+
+        ForkJoinTask.invokeAll(tasks);
+
+        int nrOfPairs = 0;
+        for (SameNameTagsTask task : tasks)
+        {
+            nrOfPairs += task.nrOfPairs;
+
+            // Affect parent changes
+            if (task.changes.childTagChanged)
+            {
+                changes.childTagChanged = true;
+            }
+            if (task.changes.childTagMandatory)
+            {
+                changes.childTagMandatory = true;
+            }
+            if (task.changes.modification.equals("C"))
+            {
+                changes.modification = "C";
+            }
+        }
+
+        for (List<Tag> tagDiffTags : tagsDiffTags)
+        {
+            diffTags.addAll(tagDiffTags);
+        }
+
+        return nrOfPairs;
+    }
+
+    /**
+     * Compares the tags with the same name from the first list of Tags, with their own changes.
+     */
+    private final class SameNameTagsTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Integer> sameNameTags;
+        private final Siblings siblings;
+        private final List<List<Tag>> tagsDiffTags;
+
+        private final Tag changes = new Tag();
+        private int nrOfPairs = 0;
+
+        SameNameTagsTask (List<Integer> sameNameTags, Siblings siblings, int tagLevel, List<List<Tag>> tagsDiffTags)
+        {
+            this.sameNameTags = sameNameTags;
+            this.siblings = siblings;
+            this.tagsDiffTags = tagsDiffTags;
+
+            changes.tagLevel = tagLevel;
+        }
+
+        @Override
+        protected void compute ()
+        {
+            for (int i : sameNameTags)
+            {
+                List<Tag> tagDiffTags = new ArrayList<Tag>();
+                nrOfPairs += compareTag(tagDiffTags, siblings, i, changes, false);
+
+                tagsDiffTags.set(i, tagDiffTags);
+            }
+        }
+    }
+
+    /**
+     * Compare two tags with the same name, or two root tags, and add their difference to the list of matched tags.
+     *
+     * @param diffTags the list with the matched tags of the current level of tags
+     * @param tag1 the tag from the first list of Tags
+     * @param tag2 the tag from the second list of Tags
+     * @param index1 the index of tag1 in its list
+     * @param index2 the index of tag2 in its list
+     * @param changes stores the changes for the current level of tags
+     * @param isAttribute specifies if the content of an attribute is being processed now
+     * @param parentPath the path of the parent of the tags
+     * @return the percentage at which the content of the tags matched
+     */
+    private int addTagMatch (List<Tag> diffTags, Tag tag1, Tag tag2, int index1, int index2, Tag changes, boolean isAttribute, MandatoryTags.Path parentPath)
+    {
+        if (tag1.fingerprint != Tag.NO_FINGERPRINT && tag1.fingerprint == tag2.fingerprint)
+        {
+            // Same content: a 100% match, there is no need to compare the content of the tags
+            diffTags.add( getSameTagDiff(tag2, changes.tagLevel, index1, index2, changes, isAttribute, parentPath) );
+            return Tag.MATCHED;
+        }
+
+        // Tags with the same content as tags compared before have the same difference. Attributes are cheap to compare, so they are not cached.
+        MatchKey key = null;
+        if (matchCache != null && !isAttribute && tag1.fingerprint != Tag.NO_FINGERPRINT && tag2.fingerprint != Tag.NO_FINGERPRINT)
+        {
+            key = new MatchKey(tag1.fingerprint, tag2.fingerprint, changes.tagLevel, parentPath.id);
+
+            CachedMatch cachedMatch;
+            synchronized (matchCache)
+            {
+                cachedMatch = matchCache.get(key);
+                if (cachedMatch != null)
+                {
+                    cacheHits++;
+                }
+                else
+                {
+                    cacheMisses++;
+                }
+            }
+
+            if (cachedMatch != null)
+            {
+                addCachedMatch(diffTags, cachedMatch, index1, index2, changes);
+                return cachedMatch.diffTag.contentMatchPercent;
+            }
+        }
+
+        // Track local changes
+        Tag attributesChanges = new Tag();
+        Tag childChanges = new Tag();
+        childChanges.name = tag2.name;
+        childChanges.tagLevel = changes.tagLevel;
+
+        List<Tag> tagAttributes = getTagDiff (tag1.attributes, tag2.attributes, false, attributesChanges, true, parentPath.getChild(tag2.name));
+        List<Tag> childTags = getChildTagDiff (tag1, tag2, childChanges, parentPath);
+
+        boolean parentChanged = false;
+        boolean parentModified = false;
+        boolean parentChildTagMandatory = false;
+
+        if (attributesChanges.childTagChanged || childChanges.childTagChanged)
+        {
+            changes.childTagChanged = parentChanged = true; // Affect parent changes
+            
+            if (childTags.isEmpty() && !isAttribute)
+            {
+                childChanges.childTagChanged = false;
+            }
+
+            childChanges.modification = changes.modification = "C";
+            parentModified = true;
+        }
+
+        if (childChanges.childTagMandatory)
+        {
+              changes.childTagMandatory = parentChildTagMandatory = true; // Affect parent changes
+              
+              if (childTags.isEmpty() && !isAttribute)
+              {
+                  childChanges.childTagMandatory = false;
+              }
+        }
+        
+        if (!tag1.hasSameName(tag2)) // In case the root tag's name has changed
+        {
+            childChanges.modification = changes.modification = "C";
+            parentModified = true;
+        }
+
+        int attrsMatchPercent = tagAttributes.isEmpty() ? Tag.MATCHED : calcMatchingPercentage(tagAttributes);
+        int valuesMatchPercent = childTags.isEmpty() ? childChanges.valuesMatchPercent : calcMatchingPercentage(childTags);
+
+        int contentMatchPercent = (attrsMatchPercent + valuesMatchPercent)/2;
+
+        Tag diffTag = new Tag(contentMatchPercent, childChanges.name, Tag.MATCHED, tagAttributes, attrsMatchPercent, childChanges.value, childTags, valuesMatchPercent, childChanges.modification, childChanges.childTagChanged, mandatoryTags.isMandatory(parentPath, childChanges.name), childChanges.childTagMandatory, changes.tagLevel, index1, index2);
+        diffTag.valueSource = childChanges.valueSource;
+        diffTag.isApproximate = childChanges.isApproximate;
+        diffTags.add(diffTag);
+
+        if (key != null)
+        {
+            synchronized (matchCache)
+            {
+                matchCache.put(key, new CachedMatch(diffTag, parentChanged, parentModified, parentChildTagMandatory));
+            }
+        }
+
+        return contentMatchPercent;
+    }
+
+    /**
+     * Add the cached difference of two tags with the same content as the compared tags, to the list of matched tags.
+     * The content of the difference is shared, only the matched tag is copied to hold the indexes of the compared tags.
+     *
+     * @param diffTags the list with the matched tags of the current level of tags
+     * @param cachedMatch the cached difference
+     * @param index1 the index of the tag from the first list of Tags
+     * @param index2 the index of the tag from the second list of Tags
+     * @param changes stores the changes for the current level of tags
+     */
+    private void addCachedMatch (List<Tag> diffTags, CachedMatch cachedMatch, int index1, int index2, Tag changes)
+    {
+        Tag diffTag = cachedMatch.diffTag;
+
+        if (cachedMatch.parentChanged)
+        {
+            changes.childTagChanged = true; // Affect parent changes
+        }
+
+        if (cachedMatch.parentModified)
+        {
+            changes.modification = "C";
+        }
+
+        if (cachedMatch.parentChildTagMandatory)
+        {
+            changes.childTagMandatory = true; // Affect parent changes
+        }
+
+        Tag matchedTag = new Tag(diffTag.contentMatchPercent, diffTag.name, diffTag.nameMatchPercent, diffTag.attributes, diffTag.attrsMatchPercent, diffTag.getValue(), diffTag.childTags, diffTag.valuesMatchPercent, diffTag.modification, diffTag.childTagChanged, diffTag.isMandatory, diffTag.childTagMandatory, diffTag.tagLevel, index1, index2);
+        matchedTag.isApproximate = diffTag.isApproximate;
+
+        diffTags.add(matchedTag);
+    }
+
+    /**
+     * Build the difference of two tags with the same fingerprint, which is the content of the tags marked as not changed.
+     * It is the same difference as the one found by comparing their content with addTagMatch, but it is built without comparing any tags.
+     *
+     * @param tag the tag from the second list of Tags, with the same content as the one from the first list
+     * @param tagLevel the level of the tags
+     * @param index1 the index of the tag from the first list of Tags
+     * @param index2 the index of tag in its list
+     * @param changes stores the changes for the current level of tags
+     * @param isAttribute specifies if the content of an attribute is being processed now
+     * @param parentPath the path of the parent of the tags
+     * @return the difference between the two tags
+     */
+    private Tag getSameTagDiff (Tag tag, int tagLevel, int index1, int index2, Tag changes, boolean isAttribute, MandatoryTags.Path parentPath)
+    {
+        MandatoryTags.Path path = parentPath.getChild(tag.name);
+
+        // Attributes are matched in their order, as they are sorted by name
+        List<Tag> tagAttributes = new ArrayList<Tag>();
+        Tag attributesChanges = new Tag();
+
+        int nrOfAttributes = tag.attributes.size();
+        for (int i = 0; i < nrOfAttributes; i++)
+        {
+            tagAttributes.add( getSameTagDiff(tag.attributes.get(i), attributesChanges.tagLevel, i, i, attributesChanges, true, path) );
+        }
+
+        // Child tags are matched in their order, as the first match of a tag is the one with the same content
+        List<Tag> childTags = new ArrayList<Tag>();
+        boolean childTagMandatory;
+        String value = "";
+        Tag valueSource = null;
+
+        if (!tag.childTags.isEmpty())
+        {
+            Tag childChanges = new Tag();
+            
+            int nrOfChildTags = tag.childTags.size();
+            for (int i = 0; i < nrOfChildTags; i++)
+            {
+                childTags.add( getSameTagDiff(tag.childTags.get(i), tagLevel+1, i, i, childChanges, false, path) );
+            }
+
+            childTagMandatory = childChanges.childTagMandatory;
+        }
+        else
+        {
+            childTagMandatory = mandatoryTags.isMandatory(parentPath, tag.name);
+
+            // The value is read from the tag only if it is written
+            value = null;
+            valueSource = tag;
+        }
+
+        if (childTagMandatory)
+        {
+            changes.childTagMandatory = true; // Affect parent changes
+
+            if (childTags.isEmpty() && !isAttribute)
+            {
+                childTagMandatory = false;
+            }
+        }
+
+        Tag diffTag = new Tag(Tag.MATCHED, tag.name, Tag.MATCHED, tagAttributes, Tag.MATCHED, value, childTags, Tag.MATCHED, "S", false, mandatoryTags.isMandatory(parentPath, tag.name), childTagMandatory, tagLevel, index1, index2);
+        diffTag.valueSource = valueSource;
+
+        return diffTag;
+    }
+
+    /**
+     * Add a tag from the first list of Tags, which didn't match any tag from the second list, as deleted.
+     *
+     * @param diffTags the list with the matched tags of the current level of tags
+     * @param tag1 the not matched tag from the first list of Tags
+     * @param index1 the index of the tag in the first list of Tags
+     * @param changes stores the changes for the current level of tags
+     * @param parentPath the path of the parent of the tag
+     */
+    private void addDeletedTag (List<Tag> diffTags, Tag tag1, int index1, Tag changes, MandatoryTags.Path parentPath)
+    {
+        changes.childTagChanged = true;
+
+        diffTags.add( new Tag(0, tag1.name, Tag.NOT_MATCHED, tag1.attributes, Tag.NOT_MATCHED, tag1.getValue(), tag1.childTags, Tag.NOT_MATCHED, "D", false, mandatoryTags.isMandatory(parentPath, tag1.name), false, changes.tagLevel, index1, 0) );
+    }
+
+    /**
+     * Add a tag from the second list of Tags, which didn't match any tag from the first list, as new.
+     *
+     * @param diffTags the list with the matched tags of the current level of tags
+     * @param tag2 the not matched tag from the second list of Tags
+     * @param index2 the index of the tag in the second list of Tags
+     * @param changes stores the changes for the current level of tags
+     * @param parentPath the path of the parent of the tag
+     */
+    private void addNewTag (List<Tag> diffTags, Tag tag2, int index2, Tag changes, MandatoryTags.Path parentPath)
+    {
+        changes.childTagChanged = true;
+
+        boolean isMandatory = mandatoryTags.isMandatory(parentPath, tag2.name);
+        if (isMandatory)
+        {
+            changes.childTagMandatory = true;
+        }
+
+        diffTags.add( new Tag(0, tag2.name, Tag.NOT_MATCHED, tag2.attributes, Tag.NOT_MATCHED, tag2.getValue(), tag2.childTags, Tag.NOT_MATCHED, "N", false, isMandatory, false, changes.tagLevel, 0, index2) );
+    }
+
+    /**
+     * Align two lists of sibling Tags in their order and build the list with their differences, in the same order.
+     * First the tags with the same content are aligned, then the tags between them are aligned by their names, or keys, and compared.
+     * The tags left out of the alignments are deleted or new.
+     *
+     * @param tags1 the first list of Tags to be compared
+     * @param tags2 the second list of Tags to be compared
+     * @param changes stores the changes for the current level of tags
+     * @param parentPath the path of the parent of the current level of tags
+     * @return a list with the mandatory Tags, differences and similarities between the two input Tag lists, in their order
+     */
+    private List<Tag> getOrderedTagDiff (List<Tag> tags1, List<Tag> tags2, Tag changes, MandatoryTags.Path parentPath)
+    {
+        List<Tag> diffTags = new ArrayList<Tag>();
+
+        // Align the tags with the same content
+        Map<String, Integer> symbols = new HashMap<String, Integer>();
+        int[] sameTags = getCommonSubsequence(getContentSymbols(tags1, symbols), getContentSymbols(tags2, symbols));
+
+        int index1 = 0;
+        int index2 = 0;
+        int tags1Size = tags1.size();
+
+        for (int i = 0; i <= tags1Size; i++)
+        {
+            if (i < tags1Size && sameTags[i] < 0)
+            {
+                continue;
+            }
+
+            // Align the tags between the tags with the same content
+            int nextIndex2 = i < tags1Size ? sameTags[i] : tags2.size();
+            addOrderedTagDiff(diffTags, tags1, index1, i, tags2, index2, nextIndex2, changes, parentPath);
+
+            if (i < tags1Size)
+            {
+                diffTags.add( getSameTagDiff(tags2.get(nextIndex2), changes.tagLevel, i, nextIndex2, changes, false, parentPath) );
+            }
+
+            index1 = i+1;
+            index2 = nextIndex2+1;
+        }
+
+        return diffTags;
+    }
+
+    /**
+     * Align a range of the first list of Tags with a range of the second list of Tags by their names, or keys, and add their differences in their order.
+     *
+     * @param diffTags the list with the matched tags of the current level of tags
+     * @param tags1 the first list of Tags
+     * @param from1 the index of the first tag of the range from the first list
+     * @param to1 the index after the last tag of the range from the first list
+     * @param tags2 the second list of Tags
+     * @param from2 the index of the first tag of the range from the second list
+     * @param to2 the index after the last tag of the range from the second list
+     * @param changes stores the changes for the current level of tags
+     * @param parentPath the path of the parent of the current level of tags
+     */
+    private void addOrderedTagDiff (List<Tag> diffTags, List<Tag> tags1, int from1, int to1, List<Tag> tags2, int from2, int to2, Tag changes, MandatoryTags.Path parentPath)
+    {
+        List<Tag> rangeTags1 = tags1.subList(from1, to1);
+        List<Tag> rangeTags2 = tags2.subList(from2, to2);
+
+        Map<String, Integer> symbols = new HashMap<String, Integer>();
+        int[] sameNameTags = getCommonSubsequence(getNameSymbols(rangeTags1, symbols), getNameSymbols(rangeTags2, symbols));
+
+        int index2 = from2;
+        for (int i = from1; i < to1; i++)
+        {
+            int matchIndex2 = sameNameTags[i-from1];
+            if (matchIndex2 < 0)
+            {
+                addDeletedTag(diffTags, tags1.get(i), i, changes, parentPath);
+                continue;
+            }
+
+            matchIndex2 += from2;
+            for (; index2 < matchIndex2; index2++)
+            {
+                addNewTag(diffTags, tags2.get(index2), index2, changes, parentPath);
+            }
+
+            addTagMatch(diffTags, tags1.get(i), tags2.get(matchIndex2), i, matchIndex2, changes, false, parentPath);
+            index2++;
+        }
+
+        for (; index2 < to2; index2++)
+        {
+            addNewTag(diffTags, tags2.get(index2), index2, changes, parentPath);
+        }
+    }
+
+    /**
+     * Get a symbol for the content of each tag from a list, so that tags with the same content get the same symbol.
+     *
+     * @param tags the list of Tags
+     * @param symbols the symbols given so far, by content
+     * @return the symbol of each tag
+     */
+    private int[] getContentSymbols (List<Tag> tags, Map<String, Integer> symbols)
+    {
+        int[] tagSymbols = new int[tags.size()];
+
+        int i = 0;
+        for (Tag tag : tags)
+        {
+            tagSymbols[i++] = getSymbol(tag.name + '\u0000' + tag.fingerprint, symbols);
+        }
+
+        return tagSymbols;
+    }
+
+    /**
+     * Get a symbol for the name, or the key if it has one, of each tag from a list.
+     *
+     * @param tags the list of Tags
+     * @param symbols the symbols given so far, by name or key
+     * @return the symbol of each tag
+     */
+    private int[] getNameSymbols (List<Tag> tags, Map<String, Integer> symbols)
+    {
+        int[] tagSymbols = new int[tags.size()];
+
+        int i = 0;
+        for (Tag tag : tags)
+        {
+            String key = mandatoryTags.getKey(tag);
+            tagSymbols[i++] = getSymbol(key != null ? key : tag.name, symbols);
+        }
+
+        return tagSymbols;
+    }
+
+    /**
+     * Get the symbol of a value, or give it a new one.
+     *
+     * @param value the value
+     * @param symbols the symbols given so far, by value
+     * @return the symbol of the value
+     */
+    private static int getSymbol (String value, Map<String, Integer> symbols)
+    {
+        Integer symbol = symbols.get(value);
+        if (symbol == null)
+        {
+            symbol = symbols.size();
+            symbols.put(value, symbol);
+        }
+
+        return symbol;
+    }
+
+    /**
+     * Find a longest common subsequence of two sequences of symbols with Myers' algorithm, in O((n+m)d) for n and m symbols and d differences.
+     * The intermediate results of each difference are kept to rebuild the subsequence, in O(d^2) memory.
+     *
+     * @param symbols1 the first sequence
+     * @param symbols2 the second sequence
+     * @return the index in the second sequence of the symbol matching each symbol of the first sequence, or -1 for the symbols left out of the subsequence
+     */
+    static int[] getCommonSubsequence (int[] symbols1, int[] symbols2)
+    {
+        int n = symbols1.length;
+        int m = symbols2.length;
+
+        int[] matches = new int[n];
+        Arrays.fill(matches, -1);
+
+        // The furthest position in the first sequence reached on each diagonal k = x - y, for the current number of differences
+        int max = n + m;
+        int[] furthest = new int[2*max + 2];
+        List<int[]> trace = new ArrayList<int[]>();
+
+        int nrOfDifferences = -1;
+        for (int d = 0; d <= max && nrOfDifferences < 0; d++)
+        {
+            trace.add( Arrays.copyOfRange(furthest, max - d, max + d + 2) );
 
-            for (int j = 0; j < tags2Size; j++)
+            for (int k = -d; k <= d; k += 2)
             {
-                Tag tag2 = tags2.get(j);
-                if (tag2.contentMatchPercent == 100 && j != tags2Size-1)
-                {
-                    continue;
-                }
+                int x = k == -d || (k != d && furthest[max + k - 1] < furthest[max + k + 1]) ? furthest[max + k + 1] : furthest[max + k - 1] + 1;
+                int y = x - k;
 
-                if (tag1.name.equals(tag2.name) || rootEntry)
+                while (x < n && y < m && symbols1[x] == symbols2[y])
                 {
-                    tag1.isMatched = true;
-                    tag2.isMatched = true;
-
-                    // Track local changes
-                    Tag attributesChanges = new Tag();
-                    Tag childChanges = new Tag();
-                    childChanges.name = tag2.name;
-                    childChanges.tagLevel = changes.tagLevel;
+                    x++;
+                    y++;
+                }
 
-                    List<Tag> tagAttributes = getTagDiff (tag1.attributes, tag2.attributes, false, attributesChanges, true);
-                    List<Tag> childTags = getChildTagDiff (tag1, tag2, childChanges);
+                furthest[max + k] = x;
 
-                    if (attributesChanges.childTagChanged || childChanges.childTagChanged)
-                    {
-                        changes.childTagChanged = true; // Affect parent changes
-                        
-                        if (childTags.isEmpty() && !isAttribute)
-                        {
-                            childChanges.childTagChanged = false;
-                        }
+                if (x >= n && y >= m)
+                {
+                    nrOfDifferences = d;
+                    break;
+                }
+            }
+        }
 
-                        childChanges.modification = changes.modification = "C";
-                    }
+        // Go back from the end through the diagonals taken, matching the symbols on them
+        int x = n;
+        int y = m;
 
-                    if (childChanges.childTagMandatory)
-                    {
-                          changes.childTagMandatory = true; // Affect parent changes
-                          
-                          if (childTags.isEmpty() && !isAttribute)
-                          {
-                              childChanges.childTagMandatory = false;
-                          }
-                    }
-                    
-                    if (!tag1.name.equals(tag2.name)) // In case the root tag's name has changed
-                    {
-                        childChanges.modification = changes.modification = "C";
-                    }
+        for (int d = nrOfDifferences; d >= 0; d--)
+        {
+            int prevX = 0;
+            int prevY = 0;
 
-                    int attrsMatchPercent = tagAttributes.isEmpty() ? Tag.MATCHED : calcMatchingPercentage(tagAttributes);
-                    int valuesMatchPercent = childTags.isEmpty() ? childChanges.valuesMatchPercent : calcMatchingPercentage(childTags);
+            if (d > 0)
+            {
+                int[] prevFurthest = trace.get(d); // Before the d-th difference, indexed from diagonal -d
+                int k = x - y;
 
-                    int contentMatchPercent = (attrsMatchPercent + valuesMatchPercent)/2;
-                    if (tag2.contentMatchPercent < contentMatchPercent)
-                    {
-                        tag2.contentMatchPercent = contentMatchPercent;
-                    }
+                int prevK = k == -d || (k != d && prevFurthest[k - 1 + d] < prevFurthest[k + 1 + d]) ? k + 1 : k - 1;
+                prevX = prevFurthest[prevK + d];
+                prevY = prevX - prevK;
+            }
 
-                    diffTags.add( new Tag(contentMatchPercent, childChanges.name, Tag.MATCHED, tagAttributes, attrsMatchPercent, childChanges.value, childTags, valuesMatchPercent, childChanges.modification, childChanges.childTagChanged, isMandatory(childChanges.name), childChanges.childTagMandatory, changes.tagLevel, i, j) );
-                }    
-                else // No match
-                {                                     
-                    if (i == tags1Size-1 && !tag2.isMatched) // Not matched and in a last looping case
-                    {                           
-                        tag2.isMatched = true;
-                        changes.childTagChanged = true;                                        
-                        
-                        boolean isMandatory = isMandatory(tag2.name);
-                        if (isMandatory)
-                        {
-                            changes.childTagMandatory = true; 
-                        }
-                        
-                        diffTags.add( new Tag(0, tag2.name, Tag.NOT_MATCHED, tag2.attributes, Tag.NOT_MATCHED, tag2.value, tag2.childTags, Tag.NOT_MATCHED, "N", false, isMandatory, false, changes.tagLevel, 0, 0) );
-                    }
-                    
-                    if (j == tags2Size-1 && !tag1.isMatched) // Not matched and in a last looping case
-                    {
-                        tag1.isMatched = true;
-                        changes.childTagChanged = true;
+            while (x > prevX && y > prevY)
+            {
+                x--;
+                y--;
+                matches[x] = y;
+            }
 
-                        diffTags.add( new Tag(0, tag1.name, Tag.NOT_MATCHED, tag1.attributes, Tag.NOT_MATCHED, tag1.value, tag1.childTags, Tag.NOT_MATCHED, "D", false, isMandatory(tag1.name), false, changes.tagLevel, 0, 0) );
-                    }
-                }
+            x = prevX;
+            y = prevY;
+        }
 
-                if (tag2.contentMatchPercent == 100 && i != tags1Size-1)
-                {
-                    break;
-                }
+        return matches;
+    }
 
-            } // for 2
+    /**
+     * Index the positions of the tags from a list by their names.
+     *
+     * @param tags the list of Tags to be indexed
+     * @return the positions of the tags with the same name, in ascending order, for each tag name
+     */
+    private Map<String, List<Integer>> indexByName (List<Tag> tags)
+    {
+        Map<String, List<Integer>> tagsByName = new HashMap<String, List<Integer>>();
 
-            tag1.isMatched = false; // To be able to match correctly sibling tags with the same name from tag2
+        int tagsSize = tags.size();
+        for (int i = 0; i < tagsSize; i++)
+        {
+            String name = tags.get(i).name;
 
-        } // for 1
+            List<Integer> positions = tagsByName.get(name);
+            if (positions == null)
+            {
+                positions = new ArrayList<Integer>();
+                tagsByName.put(name, positions);
+            }
 
-        // Reset also the matching state of tags2 for its tags to be able to match with other tags at different level from tags1
-        for (Tag tag : tags2)
-        {
-            tag.isMatched = false;
-            tag.contentMatchPercent = 0;
+            positions.add(i);
         }
 
-        // Match/filter the tags in diffTags
-        matchTags(diffTags, tags1, tags2);
-
-        return diffTags;  
+        return tagsByName;
     }
 
     /**
@@ -209,31 +1447,35 @@ public class MatchXml extends ProcessXml
      * @param tag1 the first Tag to be compared
      * @param tag2 the second Tag to be compared
      * @param changes the changes for the input Tags
+     * @param parentPath the path of the parent of the input Tags
      * @return a list with the mandatory Tags, differences and similarities between the two input Tags
      */
-    private List<Tag> getChildTagDiff (Tag tag1, Tag tag2, Tag changes)
+    private List<Tag> getChildTagDiff (Tag tag1, Tag tag2, Tag changes, MandatoryTags.Path parentPath)
     {
         List<Tag> diffTags = new ArrayList<Tag>();
+        MandatoryTags.Path path = parentPath.getChild(tag2.name);
 
         if (!tag1.childTags.isEmpty()) // Has kids
         {
             if (!tag2.childTags.isEmpty()) // Has kids
             {
                 changes.tagLevel++;
-                diffTags = getTagDiff(tag1.childTags, tag2.childTags, false, changes, false);
+                diffTags = getTagDiff(tag1.childTags, tag2.childTags, false, changes, false, path);
             } 
             else // No kids
             {
                 changes.childTagChanged = true;
                 
                 // Add deleted tags
-                for (Tag tag : tag1.childTags) 
+                int nrOfChildTags = tag1.childTags.size();
+                for (int i = 0; i < nrOfChildTags; i++) 
                 {                   
-                    diffTags.add( new Tag(0, tag.name, Tag.NOT_MATCHED, tag.attributes, Tag.NOT_MATCHED, tag.value, tag.childTags, Tag.NOT_MATCHED, "D", false, isMandatory(tag.name), false, changes.tagLevel+1, 0, 0) );
+                    Tag tag = tag1.childTags.get(i);
+                    diffTags.add( new Tag(0, tag.name, Tag.NOT_MATCHED, tag.attributes, Tag.NOT_MATCHED, tag.getValue(), tag.childTags, Tag.NOT_MATCHED, "D", false, mandatoryTags.isMandatory(path, tag.name), false, changes.tagLevel+1, i, 0) );
                 }    
                 
                 // Add the new tag
-                if (isMandatory(tag2.name))
+                if (mandatoryTags.isMandatory(parentPath, tag2.name))
                 { 
                     changes.childTagMandatory = true;
                 }
@@ -243,9 +1485,9 @@ public class MatchXml extends ProcessXml
                 changes.attrsMatchPercent = Tag.NOT_MATCHED;
                 changes.valuesMatchPercent = Tag.NOT_MATCHED;
 
-                if (ProcessXml.isPrintable(tag2.value))
+                if (ProcessXml.isPrintable(tag2.getValue()))
                 {     
-                    changes.value = tag2.value + " (mod_val=\"N\")";
+                    changes.value = tag2.getValue() + " (mod_val=\"N\")";
                 }                  	                                        
             }                    
         }
@@ -256,15 +1498,17 @@ public class MatchXml extends ProcessXml
                 changes.childTagChanged = true;
                 
                 // Add new tags
-                for (Tag tag : tag2.childTags) 
+                int nrOfChildTags = tag2.childTags.size();
+                for (int j = 0; j < nrOfChildTags; j++) 
                 {
-                    boolean isMandatory = isMandatory(tag.name);
+                    Tag tag = tag2.childTags.get(j);
+                    boolean isMandatory = mandatoryTags.isMandatory(path, tag.name);
                     if (isMandatory)
                     {
                         changes.childTagMandatory = true;   
                     }
                     
-                    diffTags.add( new Tag(0, tag.name, Tag.NOT_MATCHED, tag.attributes, Tag.NOT_MATCHED, tag.value, tag.childTags, Tag.NOT_MATCHED, "N", false, isMandatory, false, changes.tagLevel+1, 0, 0) );
+                    diffTags.add( new Tag(0, tag.name, Tag.NOT_MATCHED, tag.attributes, Tag.NOT_MATCHED, tag.getValue(), tag.childTags, Tag.NOT_MATCHED, "N", false, isMandatory, false, changes.tagLevel+1, 0, j) );
                 }
 
                 // Add the deleted tag
@@ -273,14 +1517,14 @@ public class MatchXml extends ProcessXml
                 changes.attrsMatchPercent = Tag.NOT_MATCHED;
                 changes.valuesMatchPercent = Tag.NOT_MATCHED;
 
-                if (ProcessXml.isPrintable(tag1.value))
+                if (ProcessXml.isPrintable(tag1.getValue()))
                 {                           
-                    changes.value = tag1.value + " (mod_val=\"D\")";
+                    changes.value = tag1.getValue() + " (mod_val=\"D\")";
                 }   
             }
             else // No kids
             {
-                if (!tag1.value.equals(tag2.value)) 
+                if (!tag1.hasSameValue(tag2)) 
                 {
                     changes.childTagChanged = true;
                     changes.modification = "C";
@@ -291,38 +1535,20 @@ public class MatchXml extends ProcessXml
                     changes.valuesMatchPercent = Tag.MATCHED;
                 }
 
-                if (isMandatory(tag2.name))
+                if (mandatoryTags.isMandatory(parentPath, tag2.name))
                 {
                     changes.childTagMandatory = true;
                 }
 
                 changes.name = tag2.name;
-                changes.value = tag2.value;
+                changes.value = null; // Read only if it is written
+                changes.valueSource = tag2;
             }                  
         }
         
         return diffTags;    
      }
 
-    /**
-     * Check is a tagName is a mandatoryTag.
-     *
-     * @param tagName the Tag name to be checked
-     * @return true is the Tag name was found found in the list of mandatory Tags, else false
-     */
-    private boolean isMandatory (String tagName)
-    {
-        for (Tag mandTag : mandatoryTags)
-        {
-            if (tagName.equals(mandTag.name))
-            {
-                return true;
-            }
-        } 
-       
-       return false;
-    }
-
     /**
      * Calculate the matching percentage for a matched tag based on how many names and values matched inside it.
      *
@@ -351,97 +1577,462 @@ public class MatchXml extends ProcessXml
      * This function choose the tags that will part of the output xmlDiff.xml file, based on the List of matched Tags(diffTags).
      *
      * @param diffTags the list with the mandatory, similar and different Tags between the two next two input input lists
-     * @param tags1 the first list of Tags which was compared. Needed for marking the matching and to retrieve the initial form of a Tag for new or deleted Tags.
-     * @param tags2 the second list of Tags which was compared. Needed for marking the matching and to retrieve the initial form of a Tag for new or deleted Tags.
+     * @param tags1 the first list of Tags which was compared. Needed to retrieve the initial form of a Tag for new or deleted Tags.
+     * @param tags2 the second list of Tags which was compared. Needed to retrieve the initial form of a Tag for new or deleted Tags.
+     * @return the chosen tags
      */
-    private void  matchTags(List<Tag> diffTags, List<Tag> tags1, List<Tag> tags2)
+    private List<Tag> matchTags(List<Tag> diffTags, List<Tag> tags1, List<Tag> tags2)
     {
         // Deleted and new tags are skipped as they are anyways going to be put in the output xml file
 
-        int nrOfTags = diffTags.size();
-
         // Order tags by their contentMatchPercent in a descending order. This order ensures that the highest matching percentages are chosen first.
-        int i = 0, j;
-        for (; i < nrOfTags && i+1 < nrOfTags; i++)
+        orderByMatchPercent(diffTags);
+
+        if (tags1.isEmpty() || tags2.isEmpty())
+        {
+            return diffTags; // Only deleted or new tags
+        }
+
+        BitSet matched1 = new BitSet(tags1.size());
+        BitSet matched2 = new BitSet(tags2.size());
+
+        // The positions in diffTags of the chosen matches
+        BitSet chosen = new BitSet(diffTags.size());
+
+        if (XmlDiff.isOptimalMatching)
+        {
+            // Match first the tags with the same name so that their total matching percentage is the highest, the greedy matching completes it
+            matchOptimally(diffTags, matched1, matched2, chosen);
+        }
+
+        // Start matching from the beginning of the list the tags for which both their indexes are currently not matched.
+        // This ensures that the highest matching percentages are chosen first. Half matches will be known only at the end of this matching.
+        int diffTagsSize = diffTags.size();
+        for (int k = 0; k < diffTagsSize; k++)
+        {
+            Tag tag = diffTags.get(k);
+            if (!tag.modification.equals("D") && !tag.modification.equals("N") && !matched1.get(tag.index1) && !matched2.get(tag.index2))
+            {
+                matched1.set(tag.index1);
+                matched2.set(tag.index2);
+                chosen.set(k);
+            }
+        }
+
+        // Mark with new/deleted half matches and leave out not matched tags which have both their indexes matched.
+        List<Tag> chosenTags = new ArrayList<Tag>(diffTags.size());
+        boolean skipNextTag = false;
+
+        for (int k = 0; k < diffTagsSize; k++)
+        {
+            Tag tag = diffTags.get(k);
+            if (skipNextTag)
+            {
+                // The tag following a tag left out from the beginning of the list is kept as it is, as it always was
+                skipNextTag = false;
+            }
+            else if (!tag.modification.equals("D") && !tag.modification.equals("N"))
+            {
+                if (matched1.get(tag.index1) && matched2.get(tag.index2) && !chosen.get(k))
+                {
+                    // Leave out tags that fully matched at lower matching values
+                    skipNextTag = chosenTags.isEmpty();
+                    continue;
+                }
+                else if (!matched1.get(tag.index1) && matched2.get(tag.index2)) // For half matches
+                {
+                    matched1.set(tag.index1);
+                    tag = getUnmatchedTag(tags1.get(tag.index1), "D", tag.tagLevel, tag.index1, 0);
+                }
+                else if (!matched2.get(tag.index2) && matched1.get(tag.index1)) // For half matches
+                {
+                    matched2.set(tag.index2);
+                    tag = getUnmatchedTag(tags2.get(tag.index2), "N", tag.tagLevel, 0, tag.index2);
+                }
+            }
+
+            chosenTags.add(tag);
+        }
+
+        return chosenTags;
+    }
+
+    /**
+     * Get a compared tag marked as deleted or new, for a half match. The compared tag is not changed.
+     *
+     * @param tag the compared tag
+     * @param modification D for deleted or N for new
+     * @param tagLevel the level of the tag
+     * @param index1 the index of a deleted tag in the first list of Tags, else 0
+     * @param index2 the index of a new tag in the second list of Tags, else 0
+     * @return the tag with the given modification
+     */
+    private Tag getUnmatchedTag (Tag tag, String modification, int tagLevel, int index1, int index2)
+    {
+        return new Tag(tag.contentMatchPercent, tag.name, tag.nameMatchPercent, tag.attributes, tag.attrsMatchPercent, tag.getValue(), tag.childTags, tag.valuesMatchPercent,
+                       modification, tag.childTagChanged, tag.isMandatory, tag.childTagMandatory, tagLevel, index1, index2);
+    }
+
+    /**
+     * Match the tags with the same name so that the sum of their contentMatchPercent is the highest, by solving an assignment problem for each name.
+     * The names with more than XmlDiff.optimalMatchingLimit tags on a side are left to the greedy matching, to keep the O(n^3) cost bounded.
+     *
+     * @param diffTags the list with the mandatory, similar and different Tags
+     * @param matched1 the matched indexes of the first list of Tags
+     * @param matched2 the matched indexes of the second list of Tags
+     * @param chosen the positions in diffTags of the chosen matches
+     */
+    private void matchOptimally (List<Tag> diffTags, BitSet matched1, BitSet matched2, BitSet chosen)
+    {
+        Map<String, List<Integer>> tagsByName = new LinkedHashMap<String, List<Integer>>();
+
+        int diffTagsSize = diffTags.size();
+        for (int k = 0; k < diffTagsSize; k++)
+        {
+            Tag tag = diffTags.get(k);
+            if (tag.modification.equals("D") || tag.modification.equals("N"))
+            {
+                continue;
+            }
+
+            List<Integer> sameNameTags = tagsByName.get(tag.name);
+            if (sameNameTags == null)
+            {
+                sameNameTags = new ArrayList<Integer>();
+                tagsByName.put(tag.name, sameNameTags);
+            }
+
+            sameNameTags.add(k);
+        }
+
+        for (List<Integer> sameNameTags : tagsByName.values())
         {
-            Tag tag1 = diffTags.get(i);
+            // Number the compared tags of both lists
+            Map<Integer, Integer> rows = new HashMap<Integer, Integer>();
+            Map<Integer, Integer> columns = new HashMap<Integer, Integer>();
+
+            for (int k : sameNameTags)
+            {
+                Tag tag = diffTags.get(k);
+                if (!rows.containsKey(tag.index1))
+                {
+                    rows.put(tag.index1, rows.size());
+                }
+                if (!columns.containsKey(tag.index2))
+                {
+                    columns.put(tag.index2, columns.size());
+                }
+            }
 
-            if (tag1.contentMatchPercent == 100)
+            if (rows.size() > XmlDiff.optimalMatchingLimit || columns.size() > XmlDiff.optimalMatchingLimit)
             {
-                // Save time by skipping 100% matches, as there's no higher values to match it with
                 continue;
             }
 
-            if (!tag1.modification.equals("D") && !tag1.modification.equals("N"))
+            // The cost of a match is the percentage it misses, and not compared tags cost as much as leaving them not matched
+            int[][] costs = new int[rows.size()][columns.size()];
+            int[][] matches = new int[rows.size()][columns.size()];
+            for (int row = 0; row < costs.length; row++)
+            {
+                Arrays.fill(costs[row], Tag.MATCHED);
+                Arrays.fill(matches[row], -1);
+            }
+
+            for (int k : sameNameTags)
+            {
+                Tag tag = diffTags.get(k);
+                int row = rows.get(tag.index1);
+                int column = columns.get(tag.index2);
+
+                if (matches[row][column] < 0 || Tag.MATCHED - tag.contentMatchPercent < costs[row][column])
+                {
+                    costs[row][column] = Tag.MATCHED - tag.contentMatchPercent;
+                    matches[row][column] = k;
+                }
+            }
+
+            int[] assignment = getMinCostAssignment(costs);
+            for (int row = 0; row < assignment.length; row++)
+            {
+                int k = assignment[row] >= 0 ? matches[row][assignment[row]] : -1;
+                if (k < 0)
+                {
+                    continue;
+                }
+
+                Tag tag = diffTags.get(k);
+                if (!matched1.get(tag.index1) && !matched2.get(tag.index2))
+                {
+                    matched1.set(tag.index1);
+                    matched2.set(tag.index2);
+                    chosen.set(k);
+                }
+            }
+        }
+    }
+
+    /**
+     * Solve the assignment problem for a matrix of costs with the Hungarian algorithm, in O(n^2 m) for n rows and m columns, n <= m.
+     *
+     * @param costs the cost of assigning each row to each column
+     * @return the column assigned to each row, or -1 for the rows left without a column when there are more rows than columns
+     */
+    static int[] getMinCostAssignment (int[][] costs)
+    {
+        int nrOfRows = costs.length;
+        int nrOfColumns = nrOfRows > 0 ? costs[0].length : 0;
+
+        int[] assignment = new int[nrOfRows];
+        Arrays.fill(assignment, -1);
+
+        if (nrOfRows == 0 || nrOfColumns == 0)
+        {
+            return assignment;
+        }
+
+        // The algorithm needs at most as many rows as columns, so the matrix is transposed otherwise
+        boolean isTransposed = nrOfRows > nrOfColumns;
+        int n = isTransposed ? nrOfColumns : nrOfRows;
+        int m = isTransposed ? nrOfRows : nrOfColumns;
+
+        // Potentials of the rows(u) and columns(v), and the row assigned to each column(p), all counted from 1 with 0 as a placeholder
+        long[] u = new long[n+1];
+        long[] v = new long[m+1];
+        int[] p = new int[m+1];
+        int[] way = new int[m+1];
+
+        for (int i = 1; i <= n; i++)
+        {
+            p[0] = i;
+            int column0 = 0;
+
+            long[] minV = new long[m+1];
+            Arrays.fill(minV, Long.MAX_VALUE);
+            boolean[] used = new boolean[m+1];
+
+            do
             {
-                j = i + 1;
-                for (; j < nrOfTags; j++)
+                used[column0] = true;
+                int row0 = p[column0];
+                long delta = Long.MAX_VALUE;
+                int column1 = 0;
+
+                for (int j = 1; j <= m; j++)
                 {
-                    Tag tag2 = diffTags.get(j);
+                    if (!used[j])
+                    {
+                        long cost = (isTransposed ? costs[j-1][row0-1] : costs[row0-1][j-1]) - u[row0] - v[j];
+                        if (cost < minV[j])
+                        {
+                            minV[j] = cost;
+                            way[j] = column0;
+                        }
+                        if (minV[j] < delta)
+                        {
+                            delta = minV[j];
+                            column1 = j;
+                        }
+                    }
+                }
 
-                    if (tag1.name.equals(tag2.name) && tag1.contentMatchPercent < tag2.contentMatchPercent)
+                for (int j = 0; j <= m; j++)
+                {
+                    if (used[j])
                     {
-                        // Switch their order
-                        diffTags.set(i, tag2);
-                        diffTags.set(j, tag1);
-                        tag1 = tag2;  // Refresh the value of tag1 used in the next comparisons
+                        u[p[j]] += delta;
+                        v[j] -= delta;
+                    }
+                    else
+                    {
+                        minV[j] -= delta;
                     }
                 }
+
+                column0 = column1;
+            }
+            while (p[column0] != 0);
+
+            // Flip the assignments along the augmenting path
+            do
+            {
+                int column1 = way[column0];
+                p[column0] = p[column1];
+                column0 = column1;
             }
+            while (column0 != 0);
         }
 
-        // Start matching from the beginning of the list the tags for which both their indexes are currently not matched.
-        // This ensures that the highest matching percentages are chosen first. Half matches will be known only at the end of this matching.
-        for (Tag tag: diffTags)
+        for (int j = 1; j <= m; j++)
         {
-            if (!tag.modification.equals("D") && !tag.modification.equals("N") && !tags1.isEmpty() && !tags2.isEmpty() && !tags1.get(tag.index1).isMatched && !tags2.get(tag.index2).isMatched)
+            if (p[j] != 0)
             {
-                tags1.get(tag.index1).isMatched = true;
-                tags2.get(tag.index2).isMatched = true;
-                tag.isMatched = true;
+                if (isTransposed)
+                {
+                    assignment[j-1] = p[j]-1;
+                }
+                else
+                {
+                    assignment[p[j]-1] = j-1;
+                }
             }
         }
 
-        // Mark with new/deleted half matches and remove not matched tags which have both their indexes matched.
-        i = 0;
-        for (; i < nrOfTags; i++)
+        return assignment;
+    }
+
+    /**
+     * Order the matched tags with the same name by their contentMatchPercent in a descending order. Deleted and new tags keep their places.
+     * Each place takes the first tag with the highest contentMatchPercent from the following ones with its name, and the tags it passes over move one record further,
+     * which is the order of swapping each tag with the following higher ones. The following higher tag is found in a tree of maximums, so a place costs O(log n) per record.
+     *
+     * @param diffTags the list with the mandatory, similar and different Tags to be ordered
+     */
+    private void orderByMatchPercent (List<Tag> diffTags)
+    {
+        Map<String, List<Integer>> placesByName = new HashMap<String, List<Integer>>();
+
+        int nrOfTags = diffTags.size();
+        for (int i = 0; i < nrOfTags; i++)
         {
             Tag tag = diffTags.get(i);
+            if (tag.modification.equals("D") || tag.modification.equals("N"))
+            {
+                continue;
+            }
 
-            if (!tag.modification.equals("D") && !tag.modification.equals("N") && !tags1.isEmpty() && !tags2.isEmpty())
+            List<Integer> places = placesByName.get(tag.name);
+            if (places == null)
             {
-                if (tags1.get(tag.index1).isMatched && tags2.get(tag.index2).isMatched && !tag.isMatched)
-                {
-                    // Remove tags that fully matched at lower matching values
-                    diffTags.remove(tag);
+                places = new ArrayList<Integer>();
+                placesByName.put(tag.name, places);
+            }
 
-                    // Reset counters
-                    if (i!=0) i -= 1;
-                    nrOfTags = diffTags.size();
-                }
-                else if (!tags1.get(tag.index1).isMatched && tags2.get(tag.index2).isMatched) // For half matches
-                {
-                    tags1.get(tag.index1).isMatched = true;
+            places.add(i);
+        }
+
+        for (List<Integer> places : placesByName.values())
+        {
+            int nrOfPlaces = places.size();
+            if (nrOfPlaces < 2)
+            {
+                continue;
+            }
 
-                    int tempTagLevel = tag.tagLevel;
-                    tag = tags1.get(tag.index1);
-                    tag.tagLevel = tempTagLevel;
-                    tag.modification = "D";
+            // The tree of maximums: node i covers nodes 2i and 2i+1, and the places are the leafs starting from node nrOfLeafs
+            int nrOfLeafs = Integer.highestOneBit(nrOfPlaces-1) << 1;
+            int[] maxPercents = new int[2*nrOfLeafs];
+            Arrays.fill(maxPercents, -1);
+
+            Tag[] tags = new Tag[nrOfPlaces];
+            for (int i = 0; i < nrOfPlaces; i++)
+            {
+                tags[i] = diffTags.get(places.get(i));
+                maxPercents[nrOfLeafs+i] = tags[i].contentMatchPercent;
+            }
+            for (int i = nrOfLeafs-1; i > 0; i--)
+            {
+                maxPercents[i] = Math.max(maxPercents[2*i], maxPercents[2*i+1]);
+            }
 
-                    diffTags.set(i, tag);
+            for (int i = 0; i < nrOfPlaces-1; i++)
+            {
+                Tag tag = tags[i];
+                if (tag.contentMatchPercent == 100)
+                {
+                    // Save time by skipping 100% matches, as there's no higher values to match it with
+                    continue;
                 }
-                else if (!tags2.get(tag.index2).isMatched && tags1.get(tag.index1).isMatched) // For half matches
+
+                int j = findHigherPercent(maxPercents, nrOfLeafs, i+1, tag.contentMatchPercent);
+                while (j >= 0)
                 {
-                    tags2.get(tag.index2).isMatched = true;
+                    // Switch their order
+                    Tag higherTag = tags[j];
+                    tags[j] = tag;
+                    setPercent(maxPercents, nrOfLeafs, j, tag.contentMatchPercent);
+
+                    tag = higherTag;
+                    j = findHigherPercent(maxPercents, nrOfLeafs, j+1, tag.contentMatchPercent);
+                }
+
+                tags[i] = tag;
+                setPercent(maxPercents, nrOfLeafs, i, tag.contentMatchPercent);
+            }
+
+            for (int i = 0; i < nrOfPlaces; i++)
+            {
+                diffTags.set(places.get(i), tags[i]);
+            }
+        }
+    }
+
+    /**
+     * Find the first place, starting from a given one, holding a higher percent than the given one.
+     *
+     * @param maxPercents the tree of maximums
+     * @param nrOfLeafs the number of leafs of the tree, a power of two
+     * @param from the first place to look at
+     * @param percent the percent to be exceeded
+     * @return the first place with a higher percent, or -1 if there is none
+     */
+    private static int findHigherPercent (int[] maxPercents, int nrOfLeafs, int from, int percent)
+    {
+        if (from >= nrOfLeafs)
+        {
+            return -1;
+        }
 
-                    int tempTagLevel = tag.tagLevel;
-                    tag = tags2.get(tag.index2);
-                    tag.modification = "N";
-                    tag.tagLevel = tempTagLevel;
+        // Go up from the leaf until a node on the right side of the path holds a higher percent
+        int node = nrOfLeafs + from;
+        if (maxPercents[node] > percent)
+        {
+            return from;
+        }
 
-                    diffTags.set(i, tag);
+        while (true)
+        {
+            // Move to the next node to the right, at the lowest level where there is one
+            while ((node & 1) == 1)
+            {
+                node >>= 1;
+                if (node <= 1)
+                {
+                    return -1;
                 }
             }
+            node++;
+
+            if (maxPercents[node] > percent)
+            {
+                break;
+            }
+        }
+
+        // Go down to the first leaf holding a higher percent
+        while (node < nrOfLeafs)
+        {
+            node = maxPercents[2*node] > percent ? 2*node : 2*node+1;
+        }
+
+        return node - nrOfLeafs;
+    }
+
+    /**
+     * Set the percent of a place in the tree of maximums.
+     *
+     * @param maxPercents the tree of maximums
+     * @param nrOfLeafs the number of leafs of the tree, a power of two
+     * @param place the place to be set
+     * @param percent the new percent of the place
+     */
+    private static void setPercent (int[] maxPercents, int nrOfLeafs, int place, int percent)
+    {
+        int node = nrOfLeafs + place;
+        maxPercents[node] = percent;
+
+        for (node >>= 1; node >= 1; node >>= 1)
+        {
+            maxPercents[node] = Math.max(maxPercents[2*node], maxPercents[2*node+1]);
         }
     }
 }
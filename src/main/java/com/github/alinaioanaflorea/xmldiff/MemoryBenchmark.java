@@ -0,0 +1,165 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.List;
+import java.io.File;
+import java.io.Writer;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * This class measures the memory held by the content of an XML file, loaded as Tag structures, as a CompactTags, and as a CompactTags with its values in a memory mapped file.
+ */
+public class MemoryBenchmark
+{
+    /**
+     * Entry point to the benchmark.
+     *
+     * @param args an xml file, or the number of records of a generated xml file
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 1)
+        {
+            System.out.println ("This benchmark expects an xml file, or the number of records of a generated xml file");
+            System.exit(1);
+        }
+
+        try
+        {
+            String filePath = args[0];
+            File generatedFile = null;
+
+            if (filePath.matches("\\d+"))
+            {
+                generatedFile = File.createTempFile("xmlDiff", ".xml");
+                generatedFile.deleteOnExit();
+
+                writeRecords(generatedFile, Integer.parseInt(filePath));
+                filePath = generatedFile.getPath();
+            }
+
+            ProcessXml processXml = new ProcessXml();
+
+            // Load the file once before measuring, so that the loaded classes are not measured
+            processXml.getTags(filePath);
+            processXml.getCompactTags(filePath);
+
+            long usedMemory = getUsedMemory();
+            List<Tag> tags = processXml.getTags(filePath);
+            long tagsMemory = getUsedMemory() - usedMemory;
+            int nrOfTags = countTags(tags);
+            tags = null;
+
+            usedMemory = getUsedMemory();
+            CompactTags compactTags = processXml.getCompactTags(filePath);
+            long compactMemory = getUsedMemory() - usedMemory;
+            int nrOfNodes = compactTags.getNrOfNodes();
+            compactTags = null;
+
+            XmlDiff.isMappedInput = true;
+            processXml.getCompactTags(filePath);
+
+            usedMemory = getUsedMemory();
+            compactTags = processXml.getCompactTags(filePath);
+            long mappedMemory = getUsedMemory() - usedMemory;
+            compactTags = null;
+            XmlDiff.isMappedInput = false;
+
+            System.out.println ("File:          " + filePath + " (" + new File(filePath).length() + " bytes)");
+            System.out.println ("Tags:          " + tagsMemory + " bytes for " + nrOfTags + " tags and attributes");
+            System.out.println ("CompactTags:   " + compactMemory + " bytes for " + nrOfNodes + " nodes");
+            System.out.println ("Mapped values: " + mappedMemory + " bytes of heap for " + nrOfNodes + " nodes");
+
+            if (tagsMemory > 0)
+            {
+                System.out.println ("Reduction:     " + (100 - compactMemory * 100 / tagsMemory) + "%, " + (100 - mappedMemory * 100 / tagsMemory) + "% with mapped values");
+            }
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Get the memory used by the reachable objects, after collecting the garbage.
+     *
+     * @return the used memory in bytes
+     * @throws InterruptedException
+     */
+    private static long getUsedMemory () throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 5; i++)
+        {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Count the tags and attributes of a list of Tags.
+     *
+     * @param tags the list of Tags
+     * @return the number of tags and attributes, with their child tags
+     */
+    private static int countTags (List<Tag> tags)
+    {
+        int nrOfTags = 0;
+
+        for (Tag tag : tags)
+        {
+            nrOfTags += 1 + tag.attributes.size() + countTags(tag.childTags);
+        }
+
+        return nrOfTags;
+    }
+
+    /**
+     * Write an xml file with records of persons.
+     *
+     * @param file the file to be written
+     * @param nrOfRecords the number of records
+     * @throws IOException
+     */
+    private static void writeRecords (File file, int nrOfRecords) throws IOException
+    {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try
+        {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<persons>\n");
+
+            for (int i = 0; i < nrOfRecords; i++)
+            {
+                out.write("    <person id=\"" + i + "\" kind=\"" + (i % 3 == 0 ? "kid" : "adult") + "\">\n");
+                out.write("        <first>First" + i + "</first>\n");
+                out.write("        <last>Last" + (i % 1000) + "</last>\n");
+                out.write("        <age>" + (i % 90) + "</age>\n");
+                out.write("        <address city=\"City" + (i % 50) + "\" zip=\"" + (10000 + i % 9000) + "\">Street " + (i % 200) + "</address>\n");
+                out.write("    </person>\n");
+            }
+
+            out.write("</persons>\n");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
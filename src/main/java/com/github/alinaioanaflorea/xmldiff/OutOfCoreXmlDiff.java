@@ -0,0 +1,773 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * This class diffs two xml files larger than the memory, eg: archive exports, with the memory bounded by -DxmlDiff.memoryBudgetMB instead of by the size of the files.
+ * Both files are streamed, and the child tags of their root tags are spilled to partitions on the local disk by their names, as only the tags with the same name are matched.
+ * Each partition is loaded and diffed with MatchXml on its own, under the root tags, and its part of the difference is written to a run file as soon as it is found,
+ * each child tag of the root tag with its position: in the new file, or in the old file for a deleted tag. The runs are then merged by these positions and printed under the root tag,
+ * so the child tags are in the order of the documents whatever their partitions, a deleted tag coming before the tag at its position in the new file.
+ *
+ * A partition which doesn't fit in the budget, eg: millions of tags with the same name, is split again by the keys of its tags declared in the mandatoryTags.xml, else by their fingerprints.
+ * The tags with the same key, or the same content, are still matched with each other, but a changed tag without a key can be matched with another tag than the one
+ * it would be matched with in memory, or be shown as deleted and new, so the root tag is then marked with approx="y".
+ * Only one child tag of the root tag and one partition are kept in memory at a time, so a single child tag of the root tag must fit in the memory.
+ */
+public class OutOfCoreXmlDiff
+{
+    /**
+     * The estimated heap used to diff a partition, for each byte of its spill files: the loaded tags of both files and their difference.
+     */
+    private static final int HEAP_PER_SPILLED_BYTE = 8;
+
+    /**
+     * The maximum number of partitions the tags are spilled to at a time, which are all open while a file is streamed, and of runs merged at a time.
+     */
+    private static final int MAX_NR_OF_PARTITIONS = 256;
+
+    private static final int OLD = 0;
+    private static final int NEW = 1;
+
+    /**
+     * Loads the files and the partitions, so that all of them share the same tag names.
+     */
+    private final ProcessXml loader = new ProcessXml();
+
+    private final MatchXml matchXml = new MatchXml();
+    private final MandatoryTags mandatoryTags;
+    private final long memoryBudget;
+
+    private File spillDirectory;
+    private int nrOfSpillFiles;
+
+    /**
+     * The runs with the written parts of the difference, which are merged once all the partitions are diffed.
+     */
+    private List<Run> runs;
+
+    /**
+     * The root tags of the old and new files, without their child tags.
+     */
+    private final Tag[] rootTags = new Tag[2];
+
+    /**
+     * The root tag of the difference, with the changes of all the partitions.
+     */
+    private Tag rootDiffTag;
+
+    private int nrOfApproximateLevels;
+    private int nrOfApproximatePartitions;
+
+    /**
+     * Keeps track if a tag of the partition being split has no key, so it was added to a partition by its fingerprint.
+     */
+    private boolean isSplitByFingerprint;
+
+    /**
+     * A partition of the child tags of the root tags, with a spill file for the tags of each of the two xml files.
+     * A spill file holds each tag as its long position, followed by the tag written by TagSnapshot.writeSpilledTag.
+     */
+    private final class Partition
+    {
+        final File[] files = new File[2];
+        final int[] nrOfTags = new int[2];
+
+        /**
+         * The spill file being written, while a file is streamed.
+         */
+        DataOutputStream out;
+
+        /**
+         * Add a tag to the spill file of its xml file.
+         *
+         * @param side OLD or NEW
+         * @param tag the child tag of the root tag
+         * @param position the position of the tag in its xml file
+         * @throws IOException
+         */
+        void add (int side, Tag tag, long position) throws IOException
+        {
+            if (out == null)
+            {
+                files[side] = new File(spillDirectory, "partition" + (nrOfSpillFiles++) + (side == OLD ? ".old" : ".new"));
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[side]), 1 << 13));
+            }
+
+            out.writeLong(position);
+            TagSnapshot.writeSpilledTag(out, tag);
+            nrOfTags[side]++;
+        }
+
+        /**
+         * Close the spill file being written, before the tags of the other xml file are added.
+         *
+         * @throws IOException
+         */
+        void close () throws IOException
+        {
+            if (out != null)
+            {
+                out.close();
+                out = null;
+            }
+        }
+
+        /**
+         * Get the size of the spill files.
+         *
+         * @return the number of bytes of both spill files
+         */
+        long getSize ()
+        {
+            return (files[OLD] != null ? files[OLD].length() : 0) + (files[NEW] != null ? files[NEW].length() : 0);
+        }
+
+        /**
+         * Read the tags of a spill file, and delete it.
+         *
+         * @param side OLD or NEW
+         * @param partitions the partitions receiving the tags, or null to get them
+         * @param isKeyed specifies if the tags are added to the partitions by their keys
+         * @param positions receives the positions of the tags when getting them, else null
+         * @return the tags, or null if they were added to the partitions
+         * @throws IOException
+         */
+        List<Tag> read (int side, List<Partition> partitions, boolean isKeyed, long[] positions) throws IOException
+        {
+            List<Tag> tags = partitions == null ? new ArrayList<Tag>(nrOfTags[side]) : null;
+            if (nrOfTags[side] == 0)
+            {
+                return tags;
+            }
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(files[side]), 1 << 16));
+            try
+            {
+                for (int i = 0; i < nrOfTags[side]; i++)
+                {
+                    long position = in.readLong();
+                    Tag tag = TagSnapshot.readSpilledTag(in, loader.tagNames);
+
+                    if (partitions == null)
+                    {
+                        tags.add(tag);
+                        positions[i] = position;
+                    }
+                    else
+                    {
+                        getPartition(partitions, tag, isKeyed).add(side, tag, position);
+                    }
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            files[side].delete();
+            return tags;
+        }
+
+        /**
+         * Delete the spill files.
+         */
+        void delete ()
+        {
+            for (File file : files)
+            {
+                if (file != null)
+                {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * A run of written child tags of the difference, ordered by their positions. It holds each child tag as its long position, followed by int the number of bytes
+     * and the bytes of the child tag, as written by ProcessXml.writeChildTags in UTF-8.
+     */
+    private final class Run
+    {
+        final File file = new File(spillDirectory, "run" + (nrOfSpillFiles++));
+        int nrOfChildTags;
+
+        /**
+         * The run file, while it is written or merged.
+         */
+        DataOutputStream out;
+        DataInputStream in;
+
+        /**
+         * The child tag read last while the run is merged, and its position.
+         */
+        long position;
+        byte[] childTag;
+        int nrOfReadChildTags;
+
+        /**
+         * Add a child tag, after the ones with lower positions.
+         *
+         * @param position the position of the child tag
+         * @param childTag the written child tag
+         * @throws IOException
+         */
+        void add (long position, byte[] childTag) throws IOException
+        {
+            if (out == null)
+            {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 13));
+            }
+
+            out.writeLong(position);
+            out.writeInt(childTag.length);
+            out.write(childTag);
+            nrOfChildTags++;
+        }
+
+        /**
+         * Close the run file being written.
+         *
+         * @throws IOException
+         */
+        void close () throws IOException
+        {
+            if (out != null)
+            {
+                out.close();
+                out = null;
+            }
+        }
+
+        /**
+         * Read the next child tag, while the run is merged. The run file is closed and deleted after its last child tag.
+         *
+         * @return true if a child tag was read, or false if the run ended
+         * @throws IOException
+         */
+        boolean next () throws IOException
+        {
+            if (in == null)
+            {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 13));
+            }
+
+            if (nrOfReadChildTags == nrOfChildTags)
+            {
+                in.close();
+                file.delete();
+                return false;
+            }
+
+            position = in.readLong();
+            childTag = new byte[in.readInt()];
+            in.readFully(childTag);
+            nrOfReadChildTags++;
+
+            return true;
+        }
+    }
+
+    /**
+     * Orders the runs being merged by the position of their current child tag.
+     */
+    private static final Comparator<Run> runOrder = new Comparator<Run>()
+    {
+        public int compare (Run run1, Run run2)
+        {
+            return Long.compare(run1.position, run2.position);
+        }
+    };
+
+    /**
+     * Constructor: load the mandatory tags.
+     *
+     * @param mandatoryTagsPath the path to the mandatoryTags.xml, or an empty string for none
+     * @param memoryBudget the number of bytes of heap a partition is diffed with
+     * @throws Exception if the mandatory tags can't be read, or are not valid
+     */
+    public OutOfCoreXmlDiff (String mandatoryTagsPath, long memoryBudget) throws Exception
+    {
+        this.mandatoryTags = MandatoryTagsCache.get(loader, mandatoryTagsPath);
+        this.memoryBudget = Math.max(1, memoryBudget);
+    }
+
+    /**
+     * Diff two xml files through partitions spilled to the directory of the temporary files, and print the difference like XmlDiff does.
+     *
+     * @param filePath1 the path to the old xml file
+     * @param filePath2 the path to the new xml file
+     * @param outputPath the file in which the difference is printed
+     * @throws Exception if a file can't be read or written
+     */
+    public void diff (String filePath1, String filePath2, String outputPath) throws Exception
+    {
+        nrOfApproximateLevels = 0;
+        nrOfApproximatePartitions = 0;
+        nrOfSpillFiles = 0;
+
+        spillDirectory = Files.createTempDirectory("xmlDiffSpill").toFile();
+        try
+        {
+            long size = new File(filePath1).length() + new File(filePath2).length();
+            List<Partition> partitions = newPartitions(size);
+            runs = new ArrayList<Run>();
+
+            spill(filePath1, OLD, partitions);
+            spill(filePath2, NEW, partitions);
+
+            // The difference of the root tags alone, to which the changes of the partitions are added
+            rootDiffTag = getRootDiffTag(matchXml.GetTagDiff(Collections.singletonList(rootTags[OLD]), Collections.singletonList(rootTags[NEW]), mandatoryTags));
+            boolean hasChildTags = false;
+
+            for (Partition partition : partitions)
+            {
+                if (partition.nrOfTags[OLD] + partition.nrOfTags[NEW] != 0)
+                {
+                    hasChildTags = true;
+                    diff(partition, false);
+                }
+            }
+
+            File childTagsFile = new File(spillDirectory, "childTags");
+            merge(childTagsFile);
+
+            if (hasChildTags)
+            {
+                loader.print(rootDiffTag, childTagsFile, outputPath);
+            }
+            else
+            {
+                loader.print(Collections.singletonList(rootDiffTag), outputPath);
+            }
+
+            childTagsFile.delete();
+        }
+        finally
+        {
+            File[] files = spillDirectory.listFiles();
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    file.delete();
+                }
+            }
+
+            spillDirectory.delete();
+        }
+    }
+
+    /**
+     * Get the number of levels of tags matched approximately by MatchXml in the last diff, because of -DxmlDiff.comparisonBudget or -DxmlDiff.deadlineMillis.
+     *
+     * @return the number of approximate levels of all the partitions
+     */
+    public int getNrOfApproximateLevels ()
+    {
+        return nrOfApproximateLevels;
+    }
+
+    /**
+     * Get the number of partitions which were split by the fingerprints of their tags in the last diff, so that they were matched approximately.
+     *
+     * @return the number of approximate partitions
+     */
+    public int getNrOfApproximatePartitions ()
+    {
+        return nrOfApproximatePartitions;
+    }
+
+    /**
+     * Build the partitions needed for the tags of some files or spill files to fit in the memory budget.
+     *
+     * @param size the number of bytes of the files
+     * @return the empty partitions
+     */
+    private List<Partition> newPartitions (long size)
+    {
+        // Twice the partitions which would just fit in the budget, as the tags are not evenly spread
+        long nrOfPartitions = 2 * (size * HEAP_PER_SPILLED_BYTE / memoryBudget + 1);
+
+        List<Partition> partitions = new ArrayList<Partition>();
+        for (int i = 0; i < Math.min(nrOfPartitions, MAX_NR_OF_PARTITIONS); i++)
+        {
+            partitions.add(new Partition());
+        }
+
+        return partitions;
+    }
+
+    /**
+     * Get the partition of a tag: by its name, or by its key, else by its fingerprint, when a partition is split.
+     *
+     * @param partitions the partitions
+     * @param tag the child tag of the root tag
+     * @param isKeyed specifies if the partition is chosen by the key or the fingerprint of the tag, instead of its name
+     * @return the partition of the tag
+     */
+    private Partition getPartition (List<Partition> partitions, Tag tag, boolean isKeyed)
+    {
+        int hash = tag.name.hashCode();
+
+        if (isKeyed)
+        {
+            String key = mandatoryTags.getKey(tag);
+            if (key != null)
+            {
+                hash = key.hashCode();
+            }
+            else
+            {
+                hash = (int)(tag.fingerprint ^ (tag.fingerprint >>> 32));
+                isSplitByFingerprint = true;
+            }
+        }
+
+        // Spread the hash, as the names often differ only in their last characters
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+
+        return partitions.get((hash & 0x7fffffff) % partitions.size());
+    }
+
+    /**
+     * Stream an xml file, keeping its root tag and spilling the child tags of the root tag to the partitions.
+     *
+     * @param filePath the path to the xml file
+     * @param side OLD or NEW
+     * @param partitions the partitions receiving the tags
+     * @throws Exception if the file can't be read, or a spill file can't be written
+     */
+    private void spill (String filePath, final int side, final List<Partition> partitions) throws Exception
+    {
+        try
+        {
+            loader.streamRootChildTags(filePath, new ProcessXml.RootChildTagHandler()
+            {
+                private long position;
+
+                public void rootTag (Tag rootTag)
+                {
+                    rootTags[side] = rootTag;
+                }
+
+                public void childTag (Tag childTag) throws IOException
+                {
+                    getPartition(partitions, childTag, false).add(side, childTag, position++);
+                }
+            });
+        }
+        finally
+        {
+            for (Partition partition : partitions)
+            {
+                partition.close();
+            }
+        }
+
+        if (rootTags[side] == null)
+        {
+            throw new IOException(filePath + " has no root tag");
+        }
+    }
+
+    /**
+     * Diff the tags of a partition, or of the partitions it is split to if it doesn't fit in the memory budget, and write their part of the difference.
+     *
+     * @param partition the partition
+     * @param isSplit specifies if the partition was already split, so it is diffed even if it doesn't fit in the budget
+     * @throws IOException if a spill file can't be read, or the difference can't be written
+     */
+    private void diff (Partition partition, boolean isSplit) throws IOException
+    {
+        long size = partition.getSize();
+
+        if (!isSplit && size * HEAP_PER_SPILLED_BYTE > memoryBudget && partition.nrOfTags[OLD] + partition.nrOfTags[NEW] > 1)
+        {
+            List<Partition> partitions = newPartitions(size);
+            isSplitByFingerprint = false;
+
+            for (int side = OLD; side <= NEW; side++)
+            {
+                try
+                {
+                    partition.read(side, partitions, true, null);
+                }
+                finally
+                {
+                    for (Partition subPartition : partitions)
+                    {
+                        subPartition.close();
+                    }
+                }
+            }
+
+            if (isSplitByFingerprint)
+            {
+                nrOfApproximatePartitions++;
+                rootDiffTag.isApproximate = true;
+            }
+
+            for (Partition subPartition : partitions)
+            {
+                if (subPartition.nrOfTags[OLD] + subPartition.nrOfTags[NEW] != 0)
+                {
+                    diff(subPartition, true);
+                }
+            }
+
+            return;
+        }
+
+        try
+        {
+            long[][] positions = {new long[partition.nrOfTags[OLD]], new long[partition.nrOfTags[NEW]]};
+
+            List<Tag> tags1 = Collections.singletonList(getRootTag(OLD, partition.read(OLD, null, false, positions[OLD])));
+            List<Tag> tags2 = Collections.singletonList(getRootTag(NEW, partition.read(NEW, null, false, positions[NEW])));
+
+            List<Tag> tagDiff = matchXml.GetTagDiff(tags1, tags2, mandatoryTags);
+            nrOfApproximateLevels += matchXml.getNrOfApproximateLevels();
+
+            for (Tag tag : tagDiff)
+            {
+                if (!tag.modification.equals("D"))
+                {
+                    addChanges(tag);
+                    writeRun(tag, positions);
+                }
+            }
+        }
+        finally
+        {
+            partition.delete();
+        }
+    }
+
+    /**
+     * Write the child tags of the root tag of a partition's difference to a new run, in the order of their positions.
+     *
+     * @param rootTag the root tag of the partition's difference
+     * @param positions the positions of the child tags of the old and new root tags of the partition
+     * @throws IOException if the run can't be written
+     */
+    private void writeRun (Tag rootTag, long[][] positions) throws IOException
+    {
+        int nrOfChildTags = rootTag.childTags.size();
+        final long[] childTagPositions = new long[nrOfChildTags];
+        Integer[] order = new Integer[nrOfChildTags];
+
+        for (int i = 0; i < nrOfChildTags; i++)
+        {
+            // A deleted tag comes before the tag at its position in the new file
+            Tag childTag = rootTag.childTags.get(i);
+            childTagPositions[i] = childTag.modification.equals("D") ? 2 * positions[OLD][childTag.index1] : 2 * positions[NEW][childTag.index2] + 1;
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare (Integer index1, Integer index2)
+            {
+                return Long.compare(childTagPositions[index1], childTagPositions[index2]);
+            }
+        });
+
+        Run run = new Run();
+        try
+        {
+            for (int i : order)
+            {
+                StringWriter childTag = new StringWriter();
+                loader.writeChildTags(rootTag, Collections.singletonList(rootTag.childTags.get(i)), childTag);
+
+                // The tags without changes are not written
+                if (childTag.getBuffer().length() != 0)
+                {
+                    run.add(childTagPositions[i], childTag.toString().getBytes("UTF8"));
+                }
+            }
+        }
+        finally
+        {
+            run.close();
+        }
+
+        if (run.nrOfChildTags != 0)
+        {
+            runs.add(run);
+        }
+    }
+
+    /**
+     * Merge the runs by the positions of their child tags, and write the child tags to a file.
+     * At most MAX_NR_OF_PARTITIONS runs are open at a time, so more runs are first merged to fewer runs.
+     *
+     * @param childTagsFile the file receiving the child tags of the root tag, in UTF-8
+     * @throws IOException if a run can't be read, or a file can't be written
+     */
+    private void merge (File childTagsFile) throws IOException
+    {
+        while (runs.size() > MAX_NR_OF_PARTITIONS)
+        {
+            List<Run> mergedRuns = runs.subList(0, MAX_NR_OF_PARTITIONS);
+
+            Run run = new Run();
+            try
+            {
+                merge(new ArrayList<Run>(mergedRuns), run, null);
+            }
+            finally
+            {
+                run.close();
+            }
+
+            mergedRuns.clear();
+            runs.add(run);
+        }
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(childTagsFile), 1 << 16);
+        try
+        {
+            merge(runs, null, out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Merge some runs by the positions of their child tags, to a run or to a file.
+     *
+     * @param mergedRuns the runs to merge, which are deleted
+     * @param run the run receiving the child tags with their positions, or null
+     * @param out the file receiving only the child tags, if there is no run
+     * @throws IOException if a run can't be read, or the merged child tags can't be written
+     */
+    private static void merge (List<Run> mergedRuns, Run run, OutputStream out) throws IOException
+    {
+        PriorityQueue<Run> queue = new PriorityQueue<Run>(Math.max(1, mergedRuns.size()), runOrder);
+        try
+        {
+            for (Run mergedRun : mergedRuns)
+            {
+                if (mergedRun.next())
+                {
+                    queue.add(mergedRun);
+                }
+            }
+
+            while (!queue.isEmpty())
+            {
+                Run mergedRun = queue.poll();
+
+                if (run != null)
+                {
+                    run.add(mergedRun.position, mergedRun.childTag);
+                }
+                else
+                {
+                    out.write(mergedRun.childTag);
+                }
+
+                if (mergedRun.next())
+                {
+                    queue.add(mergedRun);
+                }
+            }
+        }
+        finally
+        {
+            for (Run mergedRun : mergedRuns)
+            {
+                if (mergedRun.in != null)
+                {
+                    mergedRun.in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a root tag with some of its child tags.
+     *
+     * @param side OLD or NEW
+     * @param childTags the child tags of a partition
+     * @return the root tag with the child tags
+     */
+    private Tag getRootTag (int side, List<Tag> childTags)
+    {
+        Tag rootTag = rootTags[side];
+
+        Tag tag = new Tag(rootTag.name, rootTag.attributes, "", childTags);
+        tag.nameId = rootTag.nameId;
+
+        return tag;
+    }
+
+    /**
+     * Get the root tag of the difference of the root tags alone, without their child tags.
+     *
+     * @param tagDiff the difference of the root tags
+     * @return the root tag which is printed
+     */
+    private static Tag getRootDiffTag (List<Tag> tagDiff)
+    {
+        for (Tag tag : tagDiff)
+        {
+            if (!tag.modification.equals("D"))
+            {
+                return tag;
+            }
+        }
+
+        return tagDiff.get(0);
+    }
+
+    /**
+     * Add the changes of the root tag of a partition's difference to the root tag of the difference.
+     *
+     * @param tag the root tag of the partition's difference
+     */
+    private void addChanges (Tag tag)
+    {
+        if (!tag.modification.equals("S"))
+        {
+            rootDiffTag.modification = tag.modification;
+        }
+
+        rootDiffTag.childTagChanged |= tag.childTagChanged;
+        rootDiffTag.childTagMandatory |= tag.childTagMandatory;
+        rootDiffTag.isApproximate |= tag.isApproximate;
+    }
+}
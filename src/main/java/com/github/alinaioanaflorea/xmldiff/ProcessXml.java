@@ -19,21 +19,39 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.BufferedInputStream;
 import java.io.FileOutputStream;
 import java.io.Writer;
+import java.io.BufferedWriter;
 import java.io.OutputStreamWriter;
 import java.io.IOException;
 
 /**
  * This class can:
- * - convert the content of an XML file to an ArrayList of Tag structures
- * - print the content of an ArrayList of Tag structures to the standard output and into a given file, if specified, overwriting it
+ * - convert the content of an XML file to an ArrayList of Tag structures, either in one pass with a StAX pull parser or through an org.w3c.dom Document,
+ *   or stream it into the arrays of a CompactTags, read through Tag structures
+ * - print the content of an ArrayList of Tag structures to the standard output and into a given file, if specified, overwriting it, or to any Writer
  */
 public class ProcessXml
 {
+    /**
+     * The names of the tags and attributes of the loaded files, so that the same names are kept once and compared by their ids.
+     */
+    final TagNames tagNames = new TagNames();
+
     /**
      *  Get the content of the input file as a Document.
      *
@@ -55,17 +73,559 @@ public class ProcessXml
 
     /**
      * Get the content of the input file as an ArrayList of Tag structures.
+     * The file is streamed through a StAX parser, unless the DOM loader was requested with -DxmlDiff.isDomLoader=true.
+     * With -DxmlDiff.isCompactModel=true the content is kept in a CompactTags, and the returned Tags are built on demand from it.
+     * With -DxmlDiff.isMappedInput=true the file is also read through memory mapping, and the values are kept in a memory mapped file.
+     * The file can also be a snapshot written by TagSnapshot, which is read instead of being parsed.
+     *
+     * @param  filePath the path to a file
+     * @return the content of the input file as an ArrayList of Tag structures
+     * @throws SAXException
+     * @throws IOException
+     * @throws ParserConfigurationException
+     * @throws XMLStreamException
+     */
+    public List<Tag> getTags (String filePath) throws SAXException, IOException, ParserConfigurationException, XMLStreamException
+    {
+        if (!XmlDiff.isMetrics)
+        {
+            return loadTags(filePath);
+        }
+
+        long startWallTime = System.nanoTime();
+        long startCpuTime = DiffMetrics.getCpuTime();
+        try
+        {
+            return loadTags(filePath);
+        }
+        finally
+        {
+            DiffMetrics.getInstance().addTime(DiffMetrics.LOAD, startWallTime, startCpuTime);
+        }
+    }
+
+    /**
+     * Get the content of an XML file as an ArrayList of Tag structures, without measuring it.
      *
      * @param  filePath the path to a file
      * @return the content of the input file as an ArrayList of Tag structures
      * @throws SAXException
      * @throws IOException
      * @throws ParserConfigurationException
+     * @throws XMLStreamException
+     */
+    private List<Tag> loadTags (String filePath) throws SAXException, IOException, ParserConfigurationException, XMLStreamException
+    {
+        if (TagSnapshot.isSnapshot(filePath))
+        {
+            return XmlDiff.isCompactModel || XmlDiff.isMappedInput ? getCompactTags(filePath).getTags() : TagSnapshot.read(filePath, tagNames);
+        }
+
+        if (XmlDiff.isDomLoader)
+        {
+            Node rootTag = getDocument(filePath).getChildNodes().item(0);
+            return getTags(rootTag);
+        }
+
+        if (XmlDiff.isCompactModel || XmlDiff.isMappedInput)
+        {
+            return getCompactTags(filePath).getTags();
+        }
+
+        return getStreamedTags(filePath);
+    }
+
+    /**
+     * The property which makes the JDK's StAX parser report CDATA sections as separate events.
+     */
+    private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    /**
+     * The StAX factory is thread safe once configured, so it is shared by all the loads.
+     */
+    private static final XMLInputFactory xmlInputFactory = newXmlInputFactory();
+
+    /**
+     * Build the StAX factory used by the streaming loader.
+     * Entity references are replaced like the DOM loader does, but CDATA sections are not coalesced, as they are separate nodes in a Document.
+     *
+     * @return the configured StAX factory
+     */
+    private static XMLInputFactory newXmlInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+
+        // The JDK's parser reports CDATA sections as characters, unless asked not to
+        if (factory.isPropertySupported(REPORT_CDATA_EVENT))
+        {
+            factory.setProperty(REPORT_CDATA_EVENT, Boolean.TRUE);
+        }
+
+        return factory;
+    }
+
+    /**
+     * Orders attributes by name, the same order in which org.w3c.dom returns them.
+     */
+    private static final Comparator<Tag> attributeOrder = new Comparator<Tag>()
+    {
+        public int compare (Tag attr1, Tag attr2)
+        {
+            return attr1.name.compareTo(attr2.name);
+        }
+    };
+
+    /**
+     * A tag which has been started but not yet ended while streaming the input file.
+     * It counts its child nodes the way a normalized Document would, to know if it holds a value or child tags.
+     */
+    private static final class OpenTag
+    {
+        String name;
+        List<Tag> attributes;
+        List<Tag> childTags = new ArrayList<Tag>();
+
+        /**
+         * The node of the tag and of its last child tag, when loading a CompactTags.
+         */
+        int node = -1;
+        int lastChildNode = -1;
+
+        int nrOfChildNodes = 0;
+        int lastNodeType = -1;
+
+        /**
+         * The value of the first child node, kept only while it is the single child node.
+         */
+        StringBuilder firstNodeValue = new StringBuilder();
+    }
+
+    /**
+     * Receives the tags read while streaming the input file.
+     */
+    private interface StreamedTagHandler
+    {
+        /**
+         * A tag was started.
+         *
+         * @param reader the StAX reader positioned on the tag's START_ELEMENT event
+         * @param parent the open parent tag, or null for the root tag
+         * @return the opened tag
+         * @throws IOException
+         */
+        OpenTag startTag (XMLStreamReader reader, OpenTag parent) throws IOException;
+
+        /**
+         * A tag was ended.
+         *
+         * @param tag    the ended tag
+         * @param parent the open parent tag, or null for the root tag
+         * @throws IOException
+         */
+        void endTag (OpenTag tag, OpenTag parent) throws IOException;
+    }
+
+    /**
+     * Get the content of the input file as an ArrayList of Tag structures, in one pass and without building a Document.
+     * The result is the same as the one built from a Document by getTags(Node).
+     *
+     * @param  filePath the path to a file
+     * @return the content of the input file as an ArrayList of Tag structures
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private List<Tag> getStreamedTags (String filePath) throws IOException, XMLStreamException
+    {
+        final List<Tag> tags = new ArrayList<Tag>();
+
+        streamTags(filePath, new StreamedTagHandler()
+        {
+            public OpenTag startTag (XMLStreamReader reader, OpenTag parent)
+            {
+                return ProcessXml.this.startTag(reader);
+            }
+
+            public void endTag (OpenTag tag, OpenTag parent)
+            {
+                Tag closedTag = ProcessXml.this.endTag(tag, parent == null);
+
+                if (parent == null)
+                {
+                    tags.add(closedTag);
+                }
+                else
+                {
+                    parent.childTags.add(closedTag);
+                }
+            }
+        });
+
+        return tags;
+    }
+
+    /**
+     * Receives the root tag and its child tags, one by one, while streaming an input file which is not kept in memory.
+     */
+    interface RootChildTagHandler
+    {
+        /**
+         * The root tag was started.
+         *
+         * @param rootTag the root tag with its attributes, without its child tags
+         * @throws IOException
+         */
+        void rootTag (Tag rootTag) throws IOException;
+
+        /**
+         * A child tag of the root tag was ended.
+         *
+         * @param childTag the child tag with its content, the same as the one loaded by getTags
+         * @throws IOException
+         */
+        void childTag (Tag childTag) throws IOException;
+    }
+
+    /**
+     * Stream the input file and hand over its root tag and each child tag of the root tag, without keeping them.
+     * Only one child tag of the root tag is in memory at a time, eg: for OutOfCoreXmlDiff.
+     *
+     * @param  filePath the path to a file
+     * @param  handler  receives the root tag and its child tags
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    void streamRootChildTags (String filePath, final RootChildTagHandler handler) throws IOException, XMLStreamException
+    {
+        streamTags(filePath, new StreamedTagHandler()
+        {
+            private OpenTag rootTag;
+
+            public OpenTag startTag (XMLStreamReader reader, OpenTag parent) throws IOException
+            {
+                OpenTag tag = ProcessXml.this.startTag(reader);
+
+                if (parent == null)
+                {
+                    rootTag = tag;
+                    handler.rootTag(newTag(tag.name, tag.attributes, "", new ArrayList<Tag>()));
+                }
+
+                return tag;
+            }
+
+            public void endTag (OpenTag tag, OpenTag parent) throws IOException
+            {
+                if (parent == null)
+                {
+                    return; // The child tags of the root tag were handed over
+                }
+
+                Tag closedTag = ProcessXml.this.endTag(tag, false);
+
+                if (parent == rootTag)
+                {
+                    handler.childTag(closedTag);
+                }
+                else
+                {
+                    parent.childTags.add(closedTag);
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the content of the input file as a CompactTags, in one pass and without building a Tag structure for each tag.
+     * Its content is the same as the one loaded by getStreamedTags. A snapshot written by TagSnapshot is read instead of being parsed.
+     *
+     * @param  filePath the path to a file
+     * @return the content of the input file as a CompactTags
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    CompactTags getCompactTags (String filePath) throws IOException, XMLStreamException
+    {
+        MappedValues mappedValues = XmlDiff.isMappedInput ? new MappedValues() : null;
+        try
+        {
+            return loadCompactTags(filePath, new CompactTags(tagNames, mappedValues));
+        }
+        finally
+        {
+            // The temporary file of the values is already deleted once they are mapped, else the load failed
+            if (mappedValues != null)
+            {
+                mappedValues.close();
+            }
+        }
+    }
+
+    /**
+     * Load the content of the input file to a CompactTags, from a snapshot or by streaming it.
+     *
+     * @param  filePath the path to a file
+     * @param  compactTags the empty CompactTags receiving the content
+     * @return the CompactTags with the content of the input file
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private CompactTags loadCompactTags (String filePath, final CompactTags compactTags) throws IOException, XMLStreamException
+    {
+        if (TagSnapshot.isSnapshot(filePath))
+        {
+            TagSnapshot.read(filePath, compactTags);
+
+            compactTags.trim();
+            return compactTags;
+        }
+
+        streamTags(filePath, new StreamedTagHandler()
+        {
+            public OpenTag startTag (XMLStreamReader reader, OpenTag parent) throws IOException
+            {
+                OpenTag tag = ProcessXml.this.startTag(reader);
+
+                if (parent == null)
+                {
+                    tag.node = compactTags.addTag(tag.name, tag.attributes, -1, -1);
+                }
+                else
+                {
+                    tag.node = compactTags.addTag(tag.name, tag.attributes, parent.lastChildNode, parent.node);
+                    parent.lastChildNode = tag.node;
+                }
+
+                tag.attributes = null; // Kept in compactTags
+                return tag;
+            }
+
+            public void endTag (OpenTag tag, OpenTag parent) throws IOException
+            {
+                String value = "";
+                boolean keepsChildTags = true;
+
+                if (parent != null && tag.nrOfChildNodes == 1)
+                {
+                    // The tag has only a value in it, a single child tag has no value and is not kept
+                    value = tag.firstNodeValue.toString().trim();
+                    keepsChildTags = false;
+                }
+
+                compactTags.endTag(tag.node, value, keepsChildTags);
+            }
+        });
+
+        compactTags.trim();
+        return compactTags;
+    }
+
+    /**
+     * Stream the input file through a StAX parser, counting the child nodes of each tag the way a normalized Document would.
+     *
+     * @param  filePath the path to a file
+     * @param  handler  receives the started and ended tags
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private void streamTags (String filePath, StreamedTagHandler handler) throws IOException, XMLStreamException
+    {
+        List<OpenTag> openTags = new ArrayList<OpenTag>();
+
+        InputStream input = XmlDiff.isMappedInput ? MappedValues.openMappedFile(filePath) : new BufferedInputStream(new FileInputStream(filePath));
+        try
+        {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new File(filePath).toURI().toString(), input);
+            try
+            {
+                while (reader.hasNext())
+                {
+                    int event = reader.next();
+
+                    if (openTags.isEmpty())
+                    {
+                        if (event == XMLStreamConstants.START_ELEMENT)
+                        {
+                            openTags.add(handler.startTag(reader, null));
+                        }
+
+                        continue; // Only the root tag and its content are kept
+                    }
+
+                    OpenTag parent = openTags.get(openTags.size()-1);
+
+                    switch (event)
+                    {
+                        case XMLStreamConstants.START_ELEMENT:
+                            addChildNode(parent, event, null);
+                            openTags.add(handler.startTag(reader, parent));
+                            break;
+
+                        case XMLStreamConstants.END_ELEMENT:
+                            openTags.remove(openTags.size()-1);
+                            handler.endTag(parent, openTags.isEmpty() ? null : openTags.get(openTags.size()-1));
+                            break;
+
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.SPACE:
+                        case XMLStreamConstants.CDATA:
+                        case XMLStreamConstants.COMMENT:
+                            addChildNode(parent, event, reader.getText());
+                            break;
+
+                        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                            addChildNode(parent, event, reader.getPIData());
+                            break;
+
+                        default:
+                            break;
+                    }
+
+                    if (openTags.isEmpty())
+                    {
+                        break; // The root tag ended
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Open a new tag from the current START_ELEMENT event.
+     *
+     * @param reader the StAX reader positioned on a START_ELEMENT event
+     * @return the opened tag with its attributes
+     */
+    private OpenTag startTag (XMLStreamReader reader)
+    {
+        OpenTag tag = new OpenTag();
+        tag.name = getQualifiedName(reader.getPrefix(), reader.getLocalName());
+
+        // Namespace declarations are attributes in a Document
+        List<Tag> attributes = new ArrayList<Tag>();
+        int nrOfNamespaces = reader.getNamespaceCount();
+        for (int i = 0; i < nrOfNamespaces; i++)
+        {
+            String prefix = reader.getNamespacePrefix(i);
+            String uri = reader.getNamespaceURI(i);
+            String attrName = (prefix == null || prefix.equals("")) ? "xmlns" : "xmlns:" + prefix;
+
+            attributes.add( newTag(attrName, new ArrayList<Tag>(), uri != null ? uri : "", new ArrayList<Tag>()) );
+        }
+
+        int nrOfAttributes = reader.getAttributeCount();
+        for (int i = 0; i < nrOfAttributes; i++)
+        {
+            String attrName = getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+
+            attributes.add( newTag(attrName, new ArrayList<Tag>(), reader.getAttributeValue(i), new ArrayList<Tag>()) );
+        }
+
+        Collections.sort(attributes, attributeOrder);
+        tag.attributes = attributes;
+
+        return tag;
+    }
+
+    /**
+     * Count a child node of an open tag. Consecutive text events are counted as one node, as in a normalized Document.
+     *
+     * @param tag       the open tag which receives the child node
+     * @param nodeType  the StAX event type of the child node
+     * @param nodeValue the value of the child node, or null for child tags
+     */
+    private void addChildNode (OpenTag tag, int nodeType, String nodeValue)
+    {
+        boolean isText = nodeType == XMLStreamConstants.CHARACTERS || nodeType == XMLStreamConstants.SPACE;
+        boolean continuesText = isText && (tag.lastNodeType == XMLStreamConstants.CHARACTERS || tag.lastNodeType == XMLStreamConstants.SPACE);
+
+        if (!continuesText)
+        {
+            tag.nrOfChildNodes++;
+        }
+        tag.lastNodeType = nodeType;
+
+        if (tag.nrOfChildNodes == 1)
+        {
+            if (nodeValue != null)
+            {
+                tag.firstNodeValue.append(nodeValue);
+            }
+        }
+        else if (tag.firstNodeValue != null)
+        {
+            tag.firstNodeValue = null; // The tag has more child nodes, so it has no value
+        }
+    }
+
+    /**
+     * Close an open tag and build its Tag structure.
+     *
+     * @param tag    the open tag to be closed
+     * @param isRoot specifies if the root tag is being closed
+     * @return the content of the closed tag as a Tag structure
+     */
+    private Tag endTag (OpenTag tag, boolean isRoot)
+    {
+        String value = "";
+        List<Tag> childTags = tag.childTags;
+
+        if (!isRoot)
+        {
+            if (tag.nrOfChildNodes == 1)
+            {
+                // The tag has only a value in it, a single child tag has no value and is not kept
+                value = tag.firstNodeValue.toString().trim();
+                childTags = new ArrayList<Tag>();
+            }
+            else if (tag.nrOfChildNodes == 0)
+            {
+                childTags = new ArrayList<Tag>();
+            }
+        }
+
+        return newTag(tag.name, tag.attributes, value, childTags);
+    }
+
+    /**
+     * Build a loaded Tag structure, with its name from the tagNames.
+     *
+     * @param name       the tag's name
+     * @param attributes the tag's attributes
+     * @param value      the tag's value
+     * @param childTags  the tag's child tags
+     * @return the Tag structure
+     */
+    private Tag newTag (String name, List<Tag> attributes, String value, List<Tag> childTags)
+    {
+        int nameId = tagNames.getId(name);
+
+        Tag tag = new Tag(tagNames.getName(nameId), attributes, value, childTags);
+        tag.nameId = nameId;
+
+        return tag;
+    }
+
+    /**
+     * Build a qualified name from its prefix and local name.
+     *
+     * @param prefix    the namespace prefix, may be null or empty
+     * @param localName the local name
+     * @return the qualified name
      */
-    public List<Tag> getTags (String filePath) throws SAXException, IOException, ParserConfigurationException
+    private static String getQualifiedName (String prefix, String localName)
     {
-        Node rootTag = getDocument(filePath).getChildNodes().item(0);
-        return getTags(rootTag);
+        return (prefix == null || prefix.equals("")) ? localName : prefix + ":" + localName;
     }
 
     /**
@@ -118,7 +678,7 @@ public class ProcessXml
                     childValue = childValue.trim();
                 }
                 
-                childtags.add( new Tag(childTag.getNodeName(), childAtributes, childValue, grandChildTags) );
+                childtags.add( newTag(childTag.getNodeName(), childAtributes, childValue, grandChildTags) );
             }                 
         }
 
@@ -132,7 +692,7 @@ public class ProcessXml
             tagValue = tagValue.trim();
         }
         
-        tags.add( new Tag(tag.getNodeName(), tagAttributes, tagValue, childtags) );
+        tags.add( newTag(tag.getNodeName(), tagAttributes, tagValue, childtags) );
 
         return tags;
     }
@@ -153,7 +713,7 @@ public class ProcessXml
         {
             Attr attr = (Attr)nodeAttributes.item(i);
 
-            attributes.add( new Tag(attr.getNodeName(), new ArrayList<Tag>(), attr.getNodeValue(), new ArrayList<Tag>()) );
+            attributes.add( newTag(attr.getNodeName(), new ArrayList<Tag>(), attr.getNodeValue(), new ArrayList<Tag>()) );
         }
 
         return attributes;
@@ -162,6 +722,7 @@ public class ProcessXml
     /**
      * Print the content of an ArrayList of Tag structures to the standard output and to a file.
      * If specified the file will be overwritten if it already exists.
+     * The content is written while walking the Tag structures, so it is never kept in memory. The standard output is skipped with -DxmlDiff.isQuiet=true.
      *
      * @param tags the ArrayList of Tag structures to be printed
      * @param fileName the name of the file in which the input list should be printed
@@ -169,35 +730,285 @@ public class ProcessXml
      */
     public void print (List<Tag> tags, String fileName) throws IOException
     {
-        String content;
+        print(tags, null, fileName);
+    }
+
+    /**
+     * Print a difference whose child tags of the root tag were already written to a file by writeChildTags, eg: by the partitions of an OutOfCoreXmlDiff.
+     * The root tag is printed with the written child tags, the same way print(List, String) prints it with its child tags.
+     *
+     * @param rootTag the root tag of the difference, without its child tags
+     * @param childTagsFile the file with the written child tags, in UTF-8
+     * @param fileName the name of the file in which the difference should be printed
+     * @throws IOException
+     */
+    void print (Tag rootTag, File childTagsFile, String fileName) throws IOException
+    {
+        print(Collections.singletonList(rootTag), childTagsFile, fileName);
+    }
+
+    /**
+     * Print the content of an ArrayList of Tag structures, or a root tag with its written child tags, to the standard output and to a file.
+     *
+     * @param tags the ArrayList of Tag structures to be printed, or the root tag
+     * @param childTagsFile the file with the written child tags of the root tag, or null if they are in the Tag structures
+     * @param fileName the name of the file in which the input list should be printed
+     * @throws IOException
+     */
+    private void print (List<Tag> tags, File childTagsFile, String fileName) throws IOException
+    {
+        Writer stdout = null;
+        Writer file = null;
+
+        try
+        {
+            if (!XmlDiff.isQuiet)
+            {
+                stdout = new BufferedWriter(new OutputStreamWriter(System.out));
+            }
+
+            // Print to a file, if given
+            if (!fileName.equals(""))
+            {
+                file = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF8"));
+            }
+
+            Writer out = stdout == null ? file : (file == null ? stdout : new TeeWriter(stdout, file));
+            if (out != null && childTagsFile == null)
+            {
+                print(tags, out);
+            }
+            else if (out != null)
+            {
+                write(tags.get(0), childTagsFile, out);
+            }
+
+            if (stdout != null)
+            {
+                stdout.write(LINE_SEPARATOR);
+                stdout.flush();
+            }
+        }
+        finally
+        {
+            if (file != null)
+            {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Print the content of an ArrayList of Tag structures to a Writer.
+     * The Writer is neither flushed nor closed.
+     *
+     * @param tags the ArrayList of Tag structures to be printed
+     * @param out  the Writer to print to
+     * @throws IOException
+     */
+    public void print (List<Tag> tags, Writer out) throws IOException
+    {
+        if (!XmlDiff.isMetrics)
+        {
+            write(tags, out);
+            return;
+        }
+
+        long startWallTime = System.nanoTime();
+        long startCpuTime = DiffMetrics.getCpuTime();
+        try
+        {
+            write(tags, out);
+        }
+        finally
+        {
+            DiffMetrics.getInstance().addTime(DiffMetrics.PRINT, startWallTime, startCpuTime);
+        }
+    }
+
+    /**
+     * Write the content of an ArrayList of Tag structures to a Writer, without measuring it.
+     *
+     * @param tags the ArrayList of Tag structures to be printed
+     * @param out  the Writer to print to
+     * @throws IOException
+     */
+    private void write (List<Tag> tags, Writer out) throws IOException
+    {
+        if (!hasContent(tags))
+        {
+            out.write("No changes! \n");
+            return;
+        }
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?> \n");
 
         if (!XmlDiff.isDebugBuild)
-        {    
-            // Release build: get only the differences and the mandatory tags and their parents   
-            content = getXmlDiffString(tags, "", false); 
+        {
+            // Release build: get only the differences and the mandatory tags and their parents
+            writeXmlDiff(out, tags, "", false);
         }
         else
         {
             // Debug build: get similarities, differences and the mandatory tags and their parents
-            content = getXmlString(tags, ""); 
+            writeXml(out, tags, "");
+        }
+    }
+
+    /**
+     * Write a root tag with its child tags already written to a file, the same way write(List, Writer) writes it with its child tags.
+     *
+     * @param rootTag the root tag, without its child tags
+     * @param childTagsFile the file with the written child tags, in UTF-8
+     * @param out the Writer to print to
+     * @throws IOException
+     */
+    private void write (Tag rootTag, File childTagsFile, Writer out) throws IOException
+    {
+        if (!rootTag.modification.equals("S") || rootTag.childTagChanged || rootTag.isMandatory || rootTag.childTagMandatory)
+        {
+            writeRootStartTag(rootTag, out);
+
+            Reader childTags = new InputStreamReader(new FileInputStream(childTagsFile), "UTF8");
+            try
+            {
+                char[] buffer = new char[1 << 16];
+                int length;
+                while ((length = childTags.read(buffer)) != -1)
+                {
+                    out.write(buffer, 0, length);
+                }
+            }
+            finally
+            {
+                childTags.close();
+            }
+
+            writeEndTag(out, rootTag);
+        }
+        else
+        {
+            // Nothing changed and there are no mandatory tags
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?> \n");
+            out.write("<");
+            out.write(rootTag.name);
+            out.write(">");
+
+            out.write("</");
+            out.write(rootTag.name);
+            out.write("> \n");
         }
+    }
+
+    /**
+     * Write the start of a difference whose child tags of the root tag are written after it, eg: by writeChildTags: the xml declaration and the start tag of the root tag.
+     *
+     * @param rootTag the root tag of the difference
+     * @param out the Writer to write to
+     * @throws IOException
+     */
+    void writeRootStartTag (Tag rootTag, Writer out) throws IOException
+    {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?> \n");
 
-        if (!content.equals(""))
+        if (!XmlDiff.isDebugBuild)
         {
-            content = "<?xml version=\"1.0\" encoding=\"UTF-8\"?> \n" + content;
+            writeDiffStartTag(out, rootTag, "", false);
         }
         else
         {
-            content = "No changes! \n";
+            writeStartTag(out, rootTag, "");
         }
-               
-        // Print to the standard output
-        System.out.println(content);
-        
-        // Print to a file, if given
-        if (!fileName.equals(""))
+
+        out.write("\n");
+    }
+
+    /**
+     * Write the end of a difference started by writeRootStartTag: the end tag of the root tag.
+     *
+     * @param rootTag the root tag of the difference
+     * @param out the Writer to write to
+     * @throws IOException
+     */
+    void writeRootEndTag (Tag rootTag, Writer out) throws IOException
+    {
+        writeEndTag(out, rootTag);
+    }
+
+    /**
+     * Write the child tags of the root tag of a difference, eg: the part of the difference found for a partition of an OutOfCoreXmlDiff.
+     * They are written as print writes them under their root tag, which is printed by print(Tag, File, String).
+     *
+     * @param rootTag the root tag of the difference, with its child tags
+     * @param out the Writer to write to
+     * @throws IOException
+     */
+    void writeChildTags (Tag rootTag, Writer out) throws IOException
+    {
+        writeChildTags(rootTag, rootTag.childTags, out);
+    }
+
+    /**
+     * Write some of the child tags of the root tag of a difference, eg: one at a time to put them in another order. Each child tag is written the same way as by writeChildTags(Tag, Writer).
+     *
+     * @param rootTag the root tag of the difference
+     * @param childTags the child tags of the root tag to be written
+     * @param out the Writer to write to
+     * @throws IOException
+     */
+    void writeChildTags (Tag rootTag, List<Tag> childTags, Writer out) throws IOException
+    {
+        if (!XmlDiff.isDebugBuild)
+        {
+            writeXmlDiff(out, childTags, "    ", rootTag.modification.equals("D") || rootTag.modification.equals("N") || rootTag.isMandatory);
+        }
+        else
+        {
+            writeXml(out, childTags, "    ");
+        }
+    }
+
+    /**
+     * The line separator added by System.out.println after the printed content.
+     */
+    static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /**
+     * A Writer which writes the same content to two Writers, to print only once to both the standard output and a file.
+     */
+    static final class TeeWriter extends Writer
+    {
+        private final Writer out1;
+        private final Writer out2;
+
+        TeeWriter (Writer out1, Writer out2)
+        {
+            this.out1 = out1;
+            this.out2 = out2;
+        }
+
+        public void write (char[] buffer, int offset, int length) throws IOException
+        {
+            out1.write(buffer, offset, length);
+            out2.write(buffer, offset, length);
+        }
+
+        public void write (String content) throws IOException
+        {
+            out1.write(content);
+            out2.write(content);
+        }
+
+        public void flush () throws IOException
+        {
+            out1.flush();
+            out2.flush();
+        }
+
+        public void close () throws IOException
         {
-            printToFile(fileName, content);
+            out1.close();
+            out2.close();
         }
     }
 
@@ -218,17 +1029,35 @@ public class ProcessXml
     }
 
     /**
-     * Convert an ArrayList of Tags to a String, taking only the differences and mandatory tag
+     * Check if an ArrayList of Tags prints any content. Only a deleted root tag is not printed.
+     *
+     * @param tags the root level ArrayList of Tags to be printed
+     * @return true if at least one root tag will be printed, else false
+     */
+    boolean hasContent (List<Tag> tags)
+    {
+        for (Tag tag : tags)
+        {
+            if (!tag.modification.equals("D"))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Write an ArrayList of Tags to a Writer, taking only the differences and mandatory tag
      *
-     * @param tags                 the ArrayList to be converted to a String format
+     * @param out                  the Writer to write to
+     * @param tags                 the ArrayList to be written
      * @param indent               the indentation for the current tag level
      * @param parentIsDelNewOrMand specifies if the parent of the current tag is marked as "D" or "N"
-     * @return the input ArrayList in String format
+     * @throws IOException
      */
-    private String getXmlDiffString (List<Tag> tags, String indent, boolean parentIsDelNewOrMand)
+    private void writeXmlDiff (Writer out, List<Tag> tags, String indent, boolean parentIsDelNewOrMand) throws IOException
     {
-        String xmlDiffString = "";
-
         for (Tag tag : tags)
         {
             if (indent.equals("") && tag.modification.equals("D"))
@@ -239,87 +1068,105 @@ public class ProcessXml
 
             if (!tag.modification.equals("S") || tag.childTagChanged || tag.isMandatory || tag.childTagMandatory || parentIsDelNewOrMand)
             {
-                // Build the start tag      
-                xmlDiffString += indent + "<" + tag.name;
-                
-                // Specify the modification
-                if (!tag.modification.equals("S"))
-                {
-                    xmlDiffString += " mod=\"" + tag.modification + "\"";
-                } 
-                
-                // Specify if its mandatory
-                if (tag.isMandatory)
-                {
-                    xmlDiffString += " mand=\"y\"";
-                }   
-                
-                // Insert the tag's attributes
-                for (Tag attr: tag.attributes)
-                {
-                    if (!attr.modification.equals("S") || tag.modification.equals("N") || tag.modification.equals("D") || parentIsDelNewOrMand)
-                    {
-                        xmlDiffString += " " + attr.name + "=" + "\"" + attr.value + "\"";
-
-                        if (!attr.modification.equals("S"))
-                        {
-                            xmlDiffString += " mod_" + attr.name + "=\"" + attr.modification + "\"";
-                        }
-                    }
-                }
-
-                xmlDiffString += ">";
-                
-                // Build the tag's content
-                if (!tag.value.equals(""))
-                {
-                    xmlDiffString += tag.value;
-                }  
+                writeDiffStartTag(out, tag, indent, parentIsDelNewOrMand);
                                       
                 if(!tag.childTags.isEmpty())
                 {                
-                    xmlDiffString += "\n";
-                    xmlDiffString += getXmlDiffString (tag.childTags, indent + "    ", tag.modification.equals("D") || tag.modification.equals("N") || tag.isMandatory || parentIsDelNewOrMand);
-                    xmlDiffString += indent;               
+                    out.write("\n");
+                    writeXmlDiff (out, tag.childTags, indent + "    ", tag.modification.equals("D") || tag.modification.equals("N") || tag.isMandatory || parentIsDelNewOrMand);
+                    out.write(indent);
                 }
                 
                 // Build the end tag  
-                xmlDiffString += "</" + tag.name + "> \n";  
-                
-                // Leave an empty line between the root tag's children: the second row/level of tags in an xml file, after the root tag
-                if (tag.tagLevel == 2)
-                {
-                    xmlDiffString += "\n";
-                }    
+                writeEndTag(out, tag);
             } 
             else if (indent.equals(""))
             {
                 // Nothing changed and there are no mandatory tags
-                xmlDiffString += indent + "<" + tag.name;
-                xmlDiffString += ">";
-                
-                //xmlDiffString += " No changes! ";
+                out.write(indent);
+                out.write("<");
+                out.write(tag.name);
+                out.write(">");
                 
-                xmlDiffString += "</" + tag.name + "> \n"; 
+                out.write("</");
+                out.write(tag.name);
+                out.write("> \n");
                 
                 break;
             }      
         } // for
+    }
+
+    /**
+     * Write the start tag and the value of a tag, taking only the differences.
+     *
+     * @param out                  the Writer to write to
+     * @param tag                  the tag to be started
+     * @param indent               the indentation of the tag
+     * @param parentIsDelNewOrMand specifies if the parent of the tag is marked as "D" or "N", or is mandatory
+     * @throws IOException
+     */
+    private void writeDiffStartTag (Writer out, Tag tag, String indent, boolean parentIsDelNewOrMand) throws IOException
+    {
+        // Build the start tag      
+        out.write(indent);
+        out.write("<");
+        out.write(tag.name);
+        
+        // Specify the modification
+        if (!tag.modification.equals("S"))
+        {
+            out.write(" mod=\"");
+            out.write(tag.modification);
+            out.write("\"");
+        } 
+        
+        // Specify if its mandatory
+        if (tag.isMandatory)
+        {
+            out.write(" mand=\"y\"");
+        }   
+
+        // Specify if its child tags were matched approximately
+        if (tag.isApproximate)
+        {
+            out.write(" approx=\"y\"");
+        }
+        
+        // Insert the tag's attributes
+        for (Tag attr: tag.attributes)
+        {
+            if (!attr.modification.equals("S") || tag.modification.equals("N") || tag.modification.equals("D") || parentIsDelNewOrMand)
+            {
+                writeAttribute(out, attr.name, attr.getValue());
+
+                if (!attr.modification.equals("S"))
+                {
+                    writeAttribute(out, "mod_" + attr.name, attr.modification);
+                }
+            }
+        }
 
-        return xmlDiffString;  
+        out.write(">");
+        
+        // Build the tag's content
+        String value = tag.getValue();
+        if (!value.equals(""))
+        {
+            out.write(value);
+        }
     }
 
     /**
-     * Convert an ArrayList of Tags to a String, taking similarities, differences and mandatory tags.
+     * Write an ArrayList of Tags to a Writer, taking similarities, differences and mandatory tags.
      *
-     * @param tags                 the ArrayList to be converted to a String format
+     * @param out                  the Writer to write to
+     * @param tags                 the ArrayList to be written
      * @param indent               the indentation for the current tag level
-     * @return the input ArrayList in String format
+     * @throws IOException
      */
-    private String getXmlString (List<Tag> tags, String indent)
+    private void writeXml (Writer out, List<Tag> tags, String indent) throws IOException
     {          
-        String xmlString = "";
-                              
         for (Tag tag : tags)
         { 
             if (indent.equals(""))
@@ -332,70 +1179,121 @@ public class ProcessXml
                 else if (tag.modification.equals("S") && !tag.childTagChanged && !tag.isMandatory && !tag.childTagMandatory)
                 {
                     // Nothing changed
-                    xmlString += indent + "<" + tag.name;
-                    xmlString += ">";
+                    out.write(indent);
+                    out.write("<");
+                    out.write(tag.name);
+                    out.write(">");
                     
-                    //xmlString += " No changes! ";
-                    
-                    xmlString += "</" + tag.name + "> \n"; 
+                    out.write("</");
+                    out.write(tag.name);
+                    out.write("> \n");
                     
                     break;
                 }
             }                
             
-            // Build the start tag      
-            xmlString += indent + "<" + tag.name;
-            
-            // Specify the modification
-            xmlString += " mod=\"" + tag.modification + "\"";
-
-            // Specify if any of its child tags changed
-            xmlString += " mod_kids=\"" + tag.childTagChanged + "\"";
-
-            // Specify if its mandatory
-            xmlString += " mand=\"" + tag.isMandatory + "\"";
-
-            // Specify if any of its kids are mandatory
-            xmlString += " mand_kids=\"" + tag.childTagMandatory + "\"";
-
-            // Specify if its mandatory
-            xmlString += " tagLevel=\"" + tag.tagLevel + "\"";                
-            
-            // Insert the attributes          
-            for (Tag attr: tag.attributes)
-            {
-                xmlString += " " + attr.name + "=" + "\"" + attr.value + "\"";
-                
-                xmlString += " mod_" + attr.name + "=\"" + attr.modification + "\"";          
-            } 
-            
-            xmlString += ">";
-            
-            // Build the tag's content
-            if (!tag.value.equals(""))
-            {
-                xmlString += tag.value;
-            }  
+            writeStartTag(out, tag, indent);
                                     
             if(!tag.childTags.isEmpty())
             {                
-                xmlString += "\n";
-                xmlString += getXmlString (tag.childTags, indent + "    ");
-                xmlString += indent;               
+                out.write("\n");
+                writeXml (out, tag.childTags, indent + "    ");
+                out.write(indent);
             }
             
             // Build the end tag  
-            xmlString += "</" + tag.name + "> \n";
-
-            // Leave an empty line between the root tag's children: the second row/level of tags in an xml file, after the root tag
-            if (tag.tagLevel == 2)
-            {
-                xmlString += "\n";
-            } 
-                
+            writeEndTag(out, tag);
         } // for
+    }
+
+    /**
+     * Write the start tag and the value of a tag, taking similarities, differences and mandatory tags.
+     *
+     * @param out    the Writer to write to
+     * @param tag    the tag to be started
+     * @param indent the indentation of the tag
+     * @throws IOException
+     */
+    private void writeStartTag (Writer out, Tag tag, String indent) throws IOException
+    {
+        // Build the start tag      
+        out.write(indent);
+        out.write("<");
+        out.write(tag.name);
+        
+        // Specify the modification
+        writeAttribute(out, "mod", tag.modification);
+
+        // Specify if any of its child tags changed
+        writeAttribute(out, "mod_kids", String.valueOf(tag.childTagChanged));
+
+        // Specify if its mandatory
+        writeAttribute(out, "mand", String.valueOf(tag.isMandatory));
+
+        // Specify if any of its kids are mandatory
+        writeAttribute(out, "mand_kids", String.valueOf(tag.childTagMandatory));
+
+        // Specify if its kids were matched approximately
+        if (tag.isApproximate)
+        {
+            writeAttribute(out, "approx", "true");
+        }
+
+        // Specify if its mandatory
+        writeAttribute(out, "tagLevel", String.valueOf(tag.tagLevel));
+        
+        // Insert the attributes          
+        for (Tag attr: tag.attributes)
+        {
+            writeAttribute(out, attr.name, attr.getValue());
+            writeAttribute(out, "mod_" + attr.name, attr.modification);
+        } 
         
-        return xmlString;  
+        out.write(">");
+        
+        // Build the tag's content
+        String value = tag.getValue();
+        if (!value.equals(""))
+        {
+            out.write(value);
+        }
+    }
+
+    /**
+     * Write an attribute, preceded by a space.
+     *
+     * @param out   the Writer to write to
+     * @param name  the name of the attribute
+     * @param value the value of the attribute
+     * @throws IOException
+     */
+    private void writeAttribute (Writer out, String name, String value) throws IOException
+    {
+        out.write(" ");
+        out.write(name);
+        out.write("=\"");
+        out.write(value);
+        out.write("\"");
+    }
+
+    /**
+     * Write the end tag of a tag.
+     *
+     * @param out the Writer to write to
+     * @param tag the tag to be ended
+     * @throws IOException
+     */
+    private void writeEndTag (Writer out, Tag tag) throws IOException
+    {
+        out.write("</");
+        out.write(tag.name);
+        out.write("> \n");
+
+        // Leave an empty line between the root tag's children: the second row/level of tags in an xml file, after the root tag
+        if (tag.tagLevel == 2)
+        {
+            out.write("\n");
+        }
     }
 
     /**
@@ -0,0 +1,623 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.io.Writer;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * This class diffs two xml files made of a root tag with many records, eg: feeds with millions of child tags of the root tag, while they are read.
+ * Both files are streamed at the same time, one record from each file in turn, and only the records which are not matched yet are kept, so the memory use stays flat.
+ *
+ * A record is matched as soon as it is read with a pending record of the other file with the same key, declared in the mandatoryTags.xml, or else with the same content.
+ * A record which is still not matched when the other file was read -DxmlDiff.recordWindow records past its position is compared with the pending records of the other file
+ * with the same name and no key, and matched with the most similar one, else it is written as deleted or new. So the records which moved farther than the window,
+ * or whose key or content didn't arrive in time, are written as deleted and new, where the diff of the loaded files would match them.
+ *
+ * The difference of each record is written as soon as it is known, in the format of xmlDiff.xml, after the root tag which shows only the changes of its name and attributes.
+ */
+public class RecordStreamXmlDiff
+{
+    /**
+     * The number of records read ahead from each file.
+     */
+    private static final int READ_AHEAD = 1024;
+
+    /**
+     * The time in milliseconds after which the written differences are flushed, so that they are seen while the files are read.
+     */
+    private static final long FLUSH_MILLIS = 1000;
+
+    private static final int OLD = 0;
+    private static final int NEW = 1;
+
+    /**
+     * Marks the end of the records of a file.
+     */
+    private static final Tag END = new Tag();
+
+    /**
+     * Loads the files, so that they share the same tag names.
+     */
+    private final ProcessXml loader = new ProcessXml();
+
+    private final MatchXml matchXml = new MatchXml();
+    private final MandatoryTags mandatoryTags;
+    private final int window;
+
+    private final Tag[] rootTags = new Tag[2];
+
+    /**
+     * The records which are not matched yet, of each file, in their order.
+     */
+    private final List<ArrayDeque<PendingRecord>> pendingRecords = new ArrayList<ArrayDeque<PendingRecord>>();
+
+    /**
+     * The records which are not matched yet, of each file, by their key, or by their fingerprint if they have no key.
+     */
+    private final List<Map<Object, ArrayDeque<PendingRecord>>> pendingRecordsByContent = new ArrayList<Map<Object, ArrayDeque<PendingRecord>>>();
+
+    /**
+     * The number of records read from each file.
+     */
+    private final long[] nrOfRecords = new long[2];
+    private final boolean[] isEnded = new boolean[2];
+
+    private Writer out;
+    private long lastFlush;
+    private long nrOfWrittenRecords;
+
+    /**
+     * A record which is not matched yet.
+     */
+    private static final class PendingRecord
+    {
+        final Tag tag;
+        final long position;
+
+        /**
+         * The key of the record, or its fingerprint if it has no key.
+         */
+        final Object content;
+        final boolean hasKey;
+
+        boolean isMatched = false;
+
+        PendingRecord (Tag tag, long position, String key)
+        {
+            this.tag = tag;
+            this.position = position;
+            this.content = key != null ? key : (Object)tag.fingerprint;
+            this.hasKey = key != null;
+        }
+    }
+
+    /**
+     * Reads the records of a file on its own thread, a bounded number of them ahead.
+     */
+    private final class RecordReader implements Runnable
+    {
+        private final String filePath;
+        private final BlockingQueue<Tag> records = new ArrayBlockingQueue<Tag>(READ_AHEAD);
+        private final CountDownLatch isRootTagRead = new CountDownLatch(1);
+
+        private volatile Tag rootTag;
+        private volatile Throwable error;
+
+        RecordReader (String filePath)
+        {
+            this.filePath = filePath;
+        }
+
+        public void run ()
+        {
+            try
+            {
+                loader.streamRootChildTags(filePath, new ProcessXml.RootChildTagHandler()
+                {
+                    public void rootTag (Tag tag)
+                    {
+                        rootTag = tag;
+                        isRootTagRead.countDown();
+                    }
+
+                    public void childTag (Tag tag) throws IOException
+                    {
+                        try
+                        {
+                            records.put(tag);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            throw new InterruptedIOException("The diff of " + filePath + " was interrupted");
+                        }
+                    }
+                });
+            }
+            catch (Throwable e)
+            {
+                error = e;
+            }
+            finally
+            {
+                isRootTagRead.countDown();
+
+                try
+                {
+                    records.put(END);
+                }
+                catch (InterruptedException e)
+                {
+                    // The diff ended
+                }
+            }
+        }
+
+        /**
+         * Start reading the file.
+         */
+        void start ()
+        {
+            Thread thread = new Thread(this, "xmlDiff reader of " + filePath);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Get the root tag of the file, once it is read.
+         *
+         * @return the root tag, without its child tags
+         * @throws Exception if the file can't be read
+         */
+        Tag getRootTag () throws Exception
+        {
+            isRootTagRead.await();
+            if (rootTag == null)
+            {
+                throw error != null ? new Exception("Can't read " + filePath, error) : new IOException(filePath + " has no root tag");
+            }
+
+            return rootTag;
+        }
+
+        /**
+         * Get the next record of the file.
+         *
+         * @return the record, or null if all of them were read
+         * @throws Exception if the file can't be read
+         */
+        Tag next () throws Exception
+        {
+            Tag record = records.take();
+            if (record != END)
+            {
+                return record;
+            }
+
+            if (error != null)
+            {
+                throw new Exception("Can't read " + filePath, error);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Constructor: load the mandatory tags.
+     *
+     * @param mandatoryTagsPath the path to the mandatoryTags.xml, or an empty string for none
+     * @param window the number of records the other file is read past a pending record, before the record is matched by its similarity or written as deleted or new
+     * @throws Exception if the mandatory tags can't be read, or are not valid
+     */
+    public RecordStreamXmlDiff (String mandatoryTagsPath, int window) throws Exception
+    {
+        this.mandatoryTags = MandatoryTagsCache.get(loader, mandatoryTagsPath);
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * Diff two xml files while they are read, and print the difference of each record to the standard output and to a file as soon as it is known.
+     * The standard output is skipped with -DxmlDiff.isQuiet=true.
+     *
+     * @param filePath1 the path to the old xml file
+     * @param filePath2 the path to the new xml file
+     * @param outputPath the file in which the difference is printed
+     * @throws Exception if a file can't be read or written
+     */
+    public void diff (String filePath1, String filePath2, String outputPath) throws Exception
+    {
+        RecordReader[] readers = { new RecordReader(filePath1), new RecordReader(filePath2) };
+        for (int side = OLD; side <= NEW; side++)
+        {
+            readers[side].start();
+
+            pendingRecords.add(new ArrayDeque<PendingRecord>());
+            pendingRecordsByContent.add(new HashMap<Object, ArrayDeque<PendingRecord>>());
+            nrOfRecords[side] = 0;
+            isEnded[side] = false;
+        }
+
+        Writer stdout = XmlDiff.isQuiet ? null : new BufferedWriter(new OutputStreamWriter(System.out));
+        Writer file = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputPath), "UTF8"));
+        out = stdout == null ? file : new ProcessXml.TeeWriter(stdout, file);
+        try
+        {
+            rootTags[OLD] = readers[OLD].getRootTag();
+            rootTags[NEW] = readers[NEW].getRootTag();
+
+            // The root tag is written first, with the changes of its name and attributes
+            Tag rootDiffTag = getDiffTag(matchXml.GetTagDiff(Collections.singletonList(rootTags[OLD]), Collections.singletonList(rootTags[NEW]), mandatoryTags));
+            loader.writeRootStartTag(rootDiffTag, out);
+            out.flush();
+            lastFlush = System.nanoTime();
+            nrOfWrittenRecords = 0;
+
+            while (!isEnded[OLD] || !isEnded[NEW])
+            {
+                for (int side = OLD; side <= NEW; side++)
+                {
+                    if (!isEnded[side])
+                    {
+                        Tag record = readers[side].next();
+                        if (record != null)
+                        {
+                            addRecord(side, record);
+                        }
+                        else
+                        {
+                            isEnded[side] = true;
+                        }
+                    }
+                }
+
+                matchPendingRecords();
+            }
+
+            loader.writeRootEndTag(rootDiffTag, out);
+        }
+        finally
+        {
+            pendingRecords.clear();
+            pendingRecordsByContent.clear();
+
+            file.close();
+            if (stdout != null)
+            {
+                stdout.write(ProcessXml.LINE_SEPARATOR);
+                stdout.flush();
+            }
+        }
+    }
+
+    /**
+     * Add a record read from a file: match it with a pending record of the other file with the same key or content, else keep it as pending.
+     *
+     * @param side OLD or NEW
+     * @param record the record
+     * @throws IOException if the difference can't be written
+     */
+    private void addRecord (int side, Tag record) throws IOException
+    {
+        long position = nrOfRecords[side]++;
+        PendingRecord pendingRecord = new PendingRecord(record, position, mandatoryTags.getKey(record));
+
+        ArrayDeque<PendingRecord> sameRecords = pendingRecordsByContent.get(1-side).get(pendingRecord.content);
+        if (sameRecords != null)
+        {
+            PendingRecord otherRecord = sameRecords.pollFirst();
+            if (sameRecords.isEmpty())
+            {
+                pendingRecordsByContent.get(1-side).remove(pendingRecord.content);
+            }
+
+            otherRecord.isMatched = true;
+            writeRecords(side == OLD ? record : otherRecord.tag, side == NEW ? record : otherRecord.tag);
+            return;
+        }
+
+        pendingRecords.get(side).addLast(pendingRecord);
+
+        sameRecords = pendingRecordsByContent.get(side).get(pendingRecord.content);
+        if (sameRecords == null)
+        {
+            sameRecords = new ArrayDeque<PendingRecord>(1);
+            pendingRecordsByContent.get(side).put(pendingRecord.content, sameRecords);
+        }
+        sameRecords.addLast(pendingRecord);
+    }
+
+    /**
+     * Match the pending records which can't get a record with the same key or content anymore, and whose records of the other file within the window can't either:
+     * each one with the most similar of these records of the other file with its name and no key, else write it as deleted or new.
+     *
+     * @throws IOException if the difference can't be written
+     */
+    private void matchPendingRecords () throws IOException
+    {
+        for (int side = OLD; side <= NEW; side++)
+        {
+            int otherSide = 1-side;
+            ArrayDeque<PendingRecord> records = pendingRecords.get(side);
+
+            while (!records.isEmpty())
+            {
+                PendingRecord pendingRecord = records.peekFirst();
+                if (!pendingRecord.isMatched && !isMatchable(side, pendingRecord))
+                {
+                    break; // The next records are more recent
+                }
+
+                records.pollFirst();
+                if (pendingRecord.isMatched)
+                {
+                    continue;
+                }
+
+                removeByContent(side, pendingRecord);
+
+                // Find the most similar record of the other file, for which no other pending record is more similar
+                PendingRecord bestRecord = null;
+                Tag bestDiffTag = null;
+                int bestPercent = -1;
+
+                if (!pendingRecord.hasKey)
+                {
+                    for (PendingRecord otherRecord : pendingRecords.get(otherSide))
+                    {
+                        if (!isCompared(pendingRecord, otherRecord) || !isSettled(otherSide, otherRecord))
+                        {
+                            continue;
+                        }
+
+                        Tag diffTag = getDiffTag(side, pendingRecord.tag, otherRecord.tag);
+                        int percent = getRecordMatchPercent(diffTag);
+
+                        if (percent > bestPercent && isBestMatch(side, otherRecord, percent))
+                        {
+                            bestRecord = otherRecord;
+                            bestDiffTag = diffTag;
+                            bestPercent = percent;
+                        }
+                    }
+                }
+
+                if (bestRecord != null)
+                {
+                    bestRecord.isMatched = true;
+                    removeByContent(otherSide, bestRecord);
+
+                    writeDiffTag(bestDiffTag);
+                }
+                else
+                {
+                    writeRecords(side == OLD ? pendingRecord.tag : null, side == NEW ? pendingRecord.tag : null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if two pending records of different files can be compared: they are not matched yet, and have the same name and no key.
+     *
+     * @param pendingRecord a pending record
+     * @param otherRecord a pending record of the other file
+     * @return true if the records can be matched, else false
+     */
+    private static boolean isCompared (PendingRecord pendingRecord, PendingRecord otherRecord)
+    {
+        return !otherRecord.isMatched && !otherRecord.hasKey && !pendingRecord.hasKey && pendingRecord.tag.hasSameName(otherRecord.tag);
+    }
+
+    /**
+     * Check if a pending record can't get a record with the same key or content anymore: the other file was read the window past it.
+     *
+     * @param side the file of the record, OLD or NEW
+     * @param pendingRecord the pending record
+     * @return true if the record can only be matched by its similarity, else false
+     */
+    private boolean isSettled (int side, PendingRecord pendingRecord)
+    {
+        return isEnded[1-side] || nrOfRecords[1-side] >= pendingRecord.position + window;
+    }
+
+    /**
+     * Check if a pending record can be matched by its similarity: it is settled, and so are the records of the other file up to the window past its position.
+     *
+     * @param side the file of the record, OLD or NEW
+     * @param pendingRecord the pending record
+     * @return true if the record can be matched, else false
+     */
+    private boolean isMatchable (int side, PendingRecord pendingRecord)
+    {
+        if (!isSettled(side, pendingRecord))
+        {
+            return false;
+        }
+
+        // The last record of the other file it is compared with is settled once this file was read the window past it
+        long lastPosition = pendingRecord.position + window;
+        if (isEnded[1-side])
+        {
+            lastPosition = Math.min(lastPosition, nrOfRecords[1-side]);
+        }
+
+        return isEnded[side] || nrOfRecords[side] >= lastPosition + window;
+    }
+
+    /**
+     * Check if no pending record of a file is more similar to a record of the other file, than the one it is being matched with.
+     *
+     * @param side the file of the pending records, OLD or NEW
+     * @param otherRecord the record of the other file
+     * @param percent the matching percentage of the record it is being matched with
+     * @return true if no pending record has a higher matching percentage with the record, else false
+     */
+    private boolean isBestMatch (int side, PendingRecord otherRecord, int percent)
+    {
+        for (PendingRecord pendingRecord : pendingRecords.get(side))
+        {
+            if (isCompared(pendingRecord, otherRecord) && isSettled(side, pendingRecord) && getRecordMatchPercent(getDiffTag(side, pendingRecord.tag, otherRecord.tag)) > percent)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove a pending record from the records by their content, once it was matched.
+     *
+     * @param side OLD or NEW
+     * @param pendingRecord the pending record
+     */
+    private void removeByContent (int side, PendingRecord pendingRecord)
+    {
+        Map<Object, ArrayDeque<PendingRecord>> recordsByContent = pendingRecordsByContent.get(side);
+        ArrayDeque<PendingRecord> sameRecords = recordsByContent.get(pendingRecord.content);
+
+        if (sameRecords != null)
+        {
+            sameRecords.remove(pendingRecord);
+            if (sameRecords.isEmpty())
+            {
+                recordsByContent.remove(pendingRecord.content);
+            }
+        }
+    }
+
+    /**
+     * Get the difference of a record with a record of the other file, under their root tags.
+     *
+     * @param side the file of the record, OLD or NEW
+     * @param record the record
+     * @param otherRecord the record of the other file
+     * @return the root tag of the difference, with the difference of the records as its child tag
+     */
+    private Tag getDiffTag (int side, Tag record, Tag otherRecord)
+    {
+        return side == OLD ? getDiffTag(record, otherRecord) : getDiffTag(otherRecord, record);
+    }
+
+    /**
+     * Get the difference of two records, under their root tags.
+     *
+     * @param record1 the record of the old file, or null if the record is new
+     * @param record2 the record of the new file, or null if the record was deleted
+     * @return the root tag of the difference, with the difference of the records as its child tag
+     */
+    private Tag getDiffTag (Tag record1, Tag record2)
+    {
+        List<Tag> tags1 = Collections.singletonList(getRootTag(OLD, record1));
+        List<Tag> tags2 = Collections.singletonList(getRootTag(NEW, record2));
+
+        return getDiffTag(matchXml.GetTagDiff(tags1, tags2, mandatoryTags));
+    }
+
+    /**
+     * Get the root tag of a difference which is printed.
+     *
+     * @param tagDiff the difference of the root tags
+     * @return the root tag which is not deleted
+     */
+    private static Tag getDiffTag (List<Tag> tagDiff)
+    {
+        for (Tag tag : tagDiff)
+        {
+            if (!tag.modification.equals("D"))
+            {
+                return tag;
+            }
+        }
+
+        return tagDiff.get(0);
+    }
+
+    /**
+     * Get the matching percentage of the records of a difference.
+     *
+     * @param rootDiffTag the root tag of the difference of two records
+     * @return the contentMatchPercent of the matched records, or -1 if they were not matched
+     */
+    private static int getRecordMatchPercent (Tag rootDiffTag)
+    {
+        for (Tag tag : rootDiffTag.childTags)
+        {
+            if (!tag.modification.equals("D") && !tag.modification.equals("N"))
+            {
+                return tag.contentMatchPercent;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get a root tag with a record as its only child tag.
+     *
+     * @param side OLD or NEW
+     * @param record the record, or null for none
+     * @return the root tag with the record
+     */
+    private Tag getRootTag (int side, Tag record)
+    {
+        Tag rootTag = rootTags[side];
+
+        Tag tag = new Tag(rootTag.name, rootTag.attributes, "", record != null ? Collections.singletonList(record) : Collections.<Tag>emptyList());
+        tag.nameId = rootTag.nameId;
+
+        return tag;
+    }
+
+    /**
+     * Write the difference of two records, or of a deleted or new record.
+     *
+     * @param record1 the record of the old file, or null if the record is new
+     * @param record2 the record of the new file, or null if the record was deleted
+     * @throws IOException
+     */
+    private void writeRecords (Tag record1, Tag record2) throws IOException
+    {
+        writeDiffTag(getDiffTag(record1, record2));
+    }
+
+    /**
+     * Write the difference of the records of a root tag, and flush it if it wasn't for a while.
+     *
+     * @param rootDiffTag the root tag of the difference
+     * @throws IOException
+     */
+    private void writeDiffTag (Tag rootDiffTag) throws IOException
+    {
+        loader.writeChildTags(rootDiffTag, out);
+
+        // Checking the time only every few records
+        if ((++nrOfWrittenRecords & 0xff) == 0 && System.nanoTime() - lastFlush > FLUSH_MILLIS * 1000000L)
+        {
+            out.flush();
+            lastFlush = System.nanoTime();
+        }
+    }
+}
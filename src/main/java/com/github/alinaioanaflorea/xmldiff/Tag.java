@@ -63,9 +63,9 @@ public class Tag
     boolean childTagMandatory = false;
 
     /**
-     * Keep track if this tag has been processed already or not.
+     * Keep track if the child tags were matched approximately, as they exceeded the comparison budget or the deadline of the diff.
      */
-    boolean isMatched = false;
+    boolean isApproximate = false;
 
     /**
      * Mark the location of the tag under the root/1st tag.
@@ -74,15 +74,36 @@ public class Tag
 
     /**
      * The following indexes represent the tags which matched to form the current tag, from the two xml files which are being compared.
+     * A deleted tag has only its index in the first file, and a new tag only its index in the second file.
      */
     int index1 = 0;
     int index2 = 0;
 
+    /**
+     * The id of the tag's name in the TagNames of the loaded files, or NO_NAME_ID for the tags which are not loaded.
+     */
+    int nameId = NO_NAME_ID;
+
+    public static final int NO_NAME_ID = -1;
+
+    /**
+     * A hash of the tag's name, attributes, value and child tags, computed when the tag is loaded from a file.
+     * Two tags with the same fingerprint have the same content, so they can be matched without comparing them.
+     * It is NO_FINGERPRINT for the tags which are not loaded, eg: the tags built while matching.
+     */
+    long fingerprint = NO_FINGERPRINT;
+
+    public static final long NO_FINGERPRINT = 0;
+
     /**
      * The default constructor.
      */
     public Tag()
     {
+        if (XmlDiff.isMetrics)
+        {
+            DiffMetrics.getInstance().countTag();
+        }
     }
 
     /**
@@ -91,6 +112,8 @@ public class Tag
     public Tag (String name, List<Tag> attributes, String value, List<Tag> childTags)
     {   
         this(0, name, NOT_MATCHED, attributes, NOT_MATCHED, value, childTags, NOT_MATCHED, "S", false, false, false, 0, 0, 0);
+
+        this.fingerprint = getFingerprint(name, attributes, value, childTags);
     }
 
     /**
@@ -98,6 +121,11 @@ public class Tag
      */
     public Tag (int contentMatchPercent, String name, int nameMatchPercent, List<Tag> attributes, int attrsMatchPercent, String value, List<Tag> childTags, int valuesMatchPercent, String modification, boolean childTagChanged, boolean isMandatory, boolean childTagMandatory, int tagLevel, int index1, int index2)
     {
+        if (XmlDiff.isMetrics)
+        {
+            DiffMetrics.getInstance().countTag();
+        }
+
         this.name = name;
         this.attributes = attributes;
         this.value = value;   
@@ -118,4 +146,152 @@ public class Tag
         this.index1 = index1;
         this.index2 = index2;
     }
+
+    /**
+     * The tag whose value is this tag's value, when it is null, so that a value read on demand is read only if needed.
+     */
+    Tag valueSource = null;
+
+    /**
+     * Get the tag's value. The value of the tags loaded in a CompactTags from a memory mapped file is read only when it is needed.
+     *
+     * @return the tag's value
+     */
+    String getValue ()
+    {
+        return value != null ? value : valueSource.getValue();
+    }
+
+    /**
+     * Check if this tag has the same value as another tag.
+     *
+     * @param tag the other tag
+     * @return true if the values are the same, else false
+     */
+    boolean hasSameValue (Tag tag)
+    {
+        return getValue().equals(tag.getValue());
+    }
+
+    /**
+     * Check if this tag has the same name as another tag: by their ids if both were loaded, else by their names.
+     *
+     * @param tag the other tag
+     * @return true if the names are the same, else false
+     */
+    boolean hasSameName (Tag tag)
+    {
+        if (nameId != NO_NAME_ID && tag.nameId != NO_NAME_ID)
+        {
+            return nameId == tag.nameId;
+        }
+
+        return name.equals(tag.name);
+    }
+
+    /**
+     * The FNV-1a 64 bit hash's offset basis and prime.
+     */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Calculate the fingerprint of a tag from its content. The attributes and child tags are hashed in their order, the attributes being sorted by name when loaded.
+     *
+     * @param name       the tag's name
+     * @param attributes the tag's attributes, with their fingerprints already calculated
+     * @param value      the tag's value
+     * @param childTags  the tag's child tags, with their fingerprints already calculated
+     * @return the fingerprint of the tag, never NO_FINGERPRINT
+     */
+    static long getFingerprint (String name, List<Tag> attributes, String value, List<Tag> childTags)
+    {
+        return getFingerprint(name, value, getFingerprints(attributes), getFingerprints(childTags));
+    }
+
+    /**
+     * Get the fingerprints of some tags, in their order.
+     *
+     * @param tags the tags, with their fingerprints already calculated
+     * @return the fingerprints of the tags
+     */
+    private static long[] getFingerprints (List<Tag> tags)
+    {
+        long[] fingerprints = new long[tags.size()];
+        for (int i = 0; i < fingerprints.length; i++)
+        {
+            fingerprints[i] = tags.get(i).fingerprint;
+        }
+
+        return fingerprints;
+    }
+
+    /**
+     * Calculate the fingerprint of a tag from its content, with the fingerprints of its attributes and child tags. It is the same as the one of a Tag with this content.
+     *
+     * @param name                  the tag's name
+     * @param value                 the tag's value
+     * @param attributeFingerprints the fingerprints of the tag's attributes, sorted by name
+     * @param childFingerprints     the fingerprints of the tag's child tags
+     * @return the fingerprint of the tag, never NO_FINGERPRINT
+     */
+    static long getFingerprint (String name, String value, long[] attributeFingerprints, long[] childFingerprints)
+    {
+        long hash = FNV_OFFSET_BASIS;
+
+        hash = hash(hash, name);
+        hash = hash(hash, value);
+
+        hash = hash(hash, attributeFingerprints.length);
+        for (long attrFingerprint : attributeFingerprints)
+        {
+            hash = hash(hash, attrFingerprint);
+        }
+
+        hash = hash(hash, childFingerprints.length);
+        for (long childFingerprint : childFingerprints)
+        {
+            hash = hash(hash, childFingerprint);
+        }
+
+        hash = mix(hash);
+        return hash != NO_FINGERPRINT ? hash : 1;
+    }
+
+    /**
+     * Add a String and its length to a hash.
+     */
+    private static long hash (long hash, String text)
+    {
+        int length = text.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+
+        return hash(hash, length);
+    }
+
+    /**
+     * Add a number to a hash.
+     */
+    private static long hash (long hash, long value)
+    {
+        return (hash ^ mix(value)) * FNV_PRIME;
+    }
+
+    /**
+     * Spread the bits of a number over all the 64 bits (MurmurHash3's finalizer).
+     */
+    private static long mix (long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb93fe53e87dbL;
+        value ^= value >>> 33;
+        return value;
+    }
 }
@@ -0,0 +1,68 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * This class is the symbol table of the tag and attribute names of the files loaded by a ProcessXml.
+ * Each different name is kept once and gets a small id, so that the loaded tags share their names and compare them by id.
+ */
+class TagNames
+{
+    /**
+     * The names by their ids. The array is replaced when it grows, so that it is read without locking.
+     */
+    private volatile String[] names = new String[64];
+    private int nrOfNames = 0;
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    /**
+     * Get the id of a name, or give it a new one.
+     *
+     * @param name the name
+     * @return the id of the name
+     */
+    synchronized int getId (String name)
+    {
+        Integer id = ids.get(name);
+        if (id == null)
+        {
+            String[] grownNames = names;
+            if (nrOfNames == grownNames.length)
+            {
+                grownNames = Arrays.copyOf(grownNames, nrOfNames * 2);
+            }
+
+            id = nrOfNames++;
+            grownNames[id] = name;
+            ids.put(name, id);
+
+            names = grownNames;
+        }
+
+        return id;
+    }
+
+    /**
+     * Get the name with an id.
+     *
+     * @param id the id of the name
+     * @return the name, the same String for all the tags with this name
+     */
+    String getName (int id)
+    {
+        return names[id];
+    }
+}
@@ -0,0 +1,609 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * This class compiles the content of an xml file into a binary snapshot, which is loaded much faster than the xml file is parsed.
+ * A snapshot is accepted by XmlDiff anywhere an xml file is, eg: for an old.xml which is compared with many new versions.
+ *
+ * The snapshot holds the Tag structure in preorder, with the names and the fingerprints of the tags, so nothing is parsed or hashed again when it is loaded:
+ * - the header: the MAGIC bytes and the int VERSION, which changes whenever the content or the fingerprints of the tags change
+ * - int the number of root tags (0 or 1), then each tag as: name, long fingerprint, value, int the number of attributes, the attributes (name, long fingerprint, value),
+ *   int the number of child tags, the child tags
+ * - a name is an int index, followed by the name itself the first time it is used; a name or a value is an int number of UTF-8 bytes, followed by the bytes
+ * - long the CRC32 checksum of all of the above
+ */
+public class TagSnapshot
+{
+    private static final byte[] MAGIC = { 'X', 'M', 'L', 'D', 'I', 'F', 'F', 'S' };
+
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Entry point to the snapshot compiler.
+     *
+     * @param args the xml file, and the snapshot file to be written
+     */
+    public static void main(String[] args)
+    {
+        XmlDiff.processProperties();
+
+        if (args.length != 2)
+        {
+            System.out.println ("This application expects an xml file, and the snapshot file to be written with its content");
+            System.exit(1);
+        }
+
+        try
+        {
+            long start = System.nanoTime();
+            write(new ProcessXml().getTags(args[0]), args[1]);
+
+            System.out.println ("Snapshot " + args[1] + " (" + new File(args[1]).length() + " bytes) written in " + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check if a file is a snapshot, by its header.
+     *
+     * @param filePath the path to a file
+     * @return true if the file starts with the MAGIC bytes, else false
+     * @throws IOException
+     */
+    static boolean isSnapshot (String filePath) throws IOException
+    {
+        InputStream in = new FileInputStream(filePath);
+        try
+        {
+            byte[] magic = new byte[MAGIC.length];
+            int length = 0;
+            int read;
+            while (length < magic.length && (read = in.read(magic, length, magic.length - length)) != -1)
+            {
+                length += read;
+            }
+
+            return Arrays.equals(magic, MAGIC);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Write a list of Tags to a snapshot file.
+     *
+     * @param tags the root tags
+     * @param filePath the path to the snapshot file
+     * @throws IOException
+     */
+    static void write (List<Tag> tags, String filePath) throws IOException
+    {
+        FileOutputStream file = new FileOutputStream(filePath);
+        try
+        {
+            CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+
+            Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+
+            out.writeInt(tags.size());
+            for (Tag tag : tags)
+            {
+                writeTag(out, tag, nameIndexes);
+            }
+
+            out.flush();
+            new DataOutputStream(file).writeLong(checked.getChecksum().getValue());
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Read the Tags of a snapshot file.
+     *
+     * @param filePath the path to the snapshot file
+     * @param tagNames the names of the tags of the loader
+     * @return the root tags
+     * @throws IOException if the file is not a valid snapshot
+     */
+    static List<Tag> read (String filePath, TagNames tagNames) throws IOException
+    {
+        SnapshotInput in = open(filePath);
+        List<String> names = new ArrayList<String>();
+
+        int nrOfTags = in.readInt();
+        List<Tag> tags = new ArrayList<Tag>(nrOfTags);
+        for (int i = 0; i < nrOfTags; i++)
+        {
+            tags.add(readTag(in, names, tagNames));
+        }
+
+        return tags;
+    }
+
+    /**
+     * Read the Tags of a snapshot file into a CompactTags.
+     *
+     * @param filePath the path to the snapshot file
+     * @param compactTags the CompactTags receiving the tags
+     * @throws IOException if the file is not a valid snapshot
+     */
+    static void read (String filePath, CompactTags compactTags) throws IOException
+    {
+        SnapshotInput in = open(filePath);
+        List<String> names = new ArrayList<String>();
+
+        int nrOfTags = in.readInt();
+        for (int i = 0; i < nrOfTags; i++)
+        {
+            readTag(in, names, compactTags, -1, -1);
+        }
+    }
+
+    /**
+     * Write a tag to a spill file, eg: a child tag of the root tag spilled by OutOfCoreXmlDiff.
+     * The tag is written like in a snapshot, but with all its names, so that the tags of a spill file are read one by one with readSpilledTag.
+     *
+     * @param out the spill file
+     * @param tag the tag, with its attributes and child tags
+     * @throws IOException
+     */
+    static void writeSpilledTag (DataOutputStream out, Tag tag) throws IOException
+    {
+        writeTag(out, tag, new HashMap<String, Integer>());
+    }
+
+    /**
+     * Read a tag written by writeSpilledTag.
+     *
+     * @param in the spill file
+     * @param tagNames the names of the tags of the loader
+     * @return the tag, with its attributes and child tags
+     * @throws IOException
+     */
+    static Tag readSpilledTag (DataInputStream in, TagNames tagNames) throws IOException
+    {
+        return readTag(new SpillInput(in), new ArrayList<String>(), tagNames);
+    }
+
+    /**
+     * Open a snapshot file, after checking its header and its checksum.
+     *
+     * @param filePath the path to the snapshot file
+     * @return the input of the snapshot, after its header
+     * @throws IOException if the file is not a valid snapshot
+     */
+    private static SnapshotInput open (String filePath) throws IOException
+    {
+        List<MappedByteBuffer> regions = MappedValues.mapFile(filePath);
+
+        long length = 0;
+        for (MappedByteBuffer region : regions)
+        {
+            length += region.capacity();
+        }
+
+        if (length < MAGIC.length + 4 + 8)
+        {
+            throw new IOException(filePath + " is not a valid snapshot: it is too short");
+        }
+
+        // Check the checksum, in a first pass over the mapped file
+        SnapshotInput in = new SnapshotInput(regions);
+        if (in.getChecksum(length - 8) != in.readLong())
+        {
+            throw new IOException(filePath + " is not a valid snapshot: its checksum doesn't match its content");
+        }
+
+        // Read the content, in a second pass
+        in = new SnapshotInput(regions);
+
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC))
+        {
+            throw new IOException(filePath + " is not a snapshot");
+        }
+
+        int version = in.readInt();
+        if (version != VERSION)
+        {
+            throw new IOException(filePath + " is a snapshot of version " + version + ", this version of XmlDiff reads version " + VERSION + ": compile it again");
+        }
+
+        return in;
+    }
+
+    /**
+     * Write a tag, with its attributes and child tags.
+     *
+     * @param out the snapshot
+     * @param tag the tag
+     * @param nameIndexes the indexes of the names written so far, to which the tag's names are added
+     * @throws IOException
+     */
+    private static void writeTag (DataOutputStream out, Tag tag, Map<String, Integer> nameIndexes) throws IOException
+    {
+        writeName(out, tag.name, nameIndexes);
+        out.writeLong(tag.fingerprint);
+        writeString(out, tag.getValue());
+
+        out.writeInt(tag.attributes.size());
+        for (Tag attribute : tag.attributes)
+        {
+            writeName(out, attribute.name, nameIndexes);
+            out.writeLong(attribute.fingerprint);
+            writeString(out, attribute.getValue());
+        }
+
+        out.writeInt(tag.childTags.size());
+        for (Tag childTag : tag.childTags)
+        {
+            writeTag(out, childTag, nameIndexes);
+        }
+    }
+
+    /**
+     * Read a tag, with its attributes and child tags.
+     *
+     * @param in the snapshot, or a spill file
+     * @param names the names read so far, by their indexes
+     * @param tagNames the names of the tags of the loader
+     * @return the tag
+     * @throws IOException
+     */
+    private static Tag readTag (TagInput in, List<String> names, TagNames tagNames) throws IOException
+    {
+        Tag tag = newTag(readName(in, names), in.readLong(), readString(in), tagNames);
+
+        int nrOfAttributes = in.readInt();
+        if (nrOfAttributes != 0)
+        {
+            tag.attributes = new ArrayList<Tag>(nrOfAttributes);
+            for (int i = 0; i < nrOfAttributes; i++)
+            {
+                tag.attributes.add(newTag(readName(in, names), in.readLong(), readString(in), tagNames));
+            }
+        }
+
+        int nrOfChildTags = in.readInt();
+        if (nrOfChildTags != 0)
+        {
+            tag.childTags = new ArrayList<Tag>(nrOfChildTags);
+            for (int i = 0; i < nrOfChildTags; i++)
+            {
+                tag.childTags.add(readTag(in, names, tagNames));
+            }
+        }
+
+        return tag;
+    }
+
+    /**
+     * Read a tag into a CompactTags, with its attributes and child tags.
+     *
+     * @param in the snapshot
+     * @param names the names read so far, by their indexes
+     * @param compactTags the CompactTags receiving the tag
+     * @param previousSibling the node of the previous child tag of the tag's parent, or -1 if it is the first one
+     * @param parent the node of the tag's parent, or -1 for the root tag
+     * @return the node of the tag
+     * @throws IOException
+     */
+    private static int readTag (TagInput in, List<String> names, CompactTags compactTags, int previousSibling, int parent) throws IOException
+    {
+        String name = readName(in, names);
+        in.readLong(); // The fingerprint is calculated by the CompactTags
+        String value = readString(in);
+
+        int nrOfAttributes = in.readInt();
+        List<Tag> attributes = new ArrayList<Tag>(nrOfAttributes);
+        for (int i = 0; i < nrOfAttributes; i++)
+        {
+            Tag attribute = new Tag(0, readName(in, names), Tag.NOT_MATCHED, Collections.<Tag>emptyList(), Tag.NOT_MATCHED, null, Collections.<Tag>emptyList(), Tag.NOT_MATCHED, "S", false, false, false, 0, 0, 0);
+            attribute.fingerprint = in.readLong();
+            attribute.value = readString(in);
+            attributes.add(attribute);
+        }
+
+        int node = compactTags.addTag(name, attributes, previousSibling, parent);
+
+        int nrOfChildTags = in.readInt();
+        int childNode = -1;
+        for (int i = 0; i < nrOfChildTags; i++)
+        {
+            childNode = readTag(in, names, compactTags, childNode, node);
+        }
+
+        compactTags.endTag(node, value, true);
+        return node;
+    }
+
+    /**
+     * Build a Tag read from a snapshot, with no attributes and child tags until they are read.
+     *
+     * @param name the tag's name
+     * @param fingerprint the tag's fingerprint
+     * @param value the tag's value
+     * @param tagNames the names of the tags of the loader
+     * @return the Tag
+     */
+    private static Tag newTag (String name, long fingerprint, String value, TagNames tagNames)
+    {
+        int nameId = tagNames.getId(name);
+
+        Tag tag = new Tag(0, tagNames.getName(nameId), Tag.NOT_MATCHED, Collections.<Tag>emptyList(), Tag.NOT_MATCHED, value, Collections.<Tag>emptyList(), Tag.NOT_MATCHED, "S", false, false, false, 0, 0, 0);
+        tag.nameId = nameId;
+        tag.fingerprint = fingerprint;
+
+        return tag;
+    }
+
+    /**
+     * Write a name: its index, followed by the name the first time it is written.
+     *
+     * @param out the snapshot
+     * @param name the name
+     * @param nameIndexes the indexes of the names written so far
+     * @throws IOException
+     */
+    private static void writeName (DataOutputStream out, String name, Map<String, Integer> nameIndexes) throws IOException
+    {
+        Integer index = nameIndexes.get(name);
+        if (index != null)
+        {
+            out.writeInt(index);
+            return;
+        }
+
+        index = nameIndexes.size();
+        nameIndexes.put(name, index);
+
+        out.writeInt(index);
+        writeString(out, name);
+    }
+
+    /**
+     * Read a name.
+     *
+     * @param in the snapshot
+     * @param names the names read so far, by their indexes, to which a new name is added
+     * @return the name
+     * @throws IOException
+     */
+    private static String readName (TagInput in, List<String> names) throws IOException
+    {
+        int index = in.readInt();
+        if (index < names.size())
+        {
+            return names.get(index);
+        }
+
+        if (index != names.size())
+        {
+            throw new IOException("Not a valid snapshot: unknown name " + index);
+        }
+
+        String name = readString(in);
+        names.add(name);
+        return name;
+    }
+
+    /**
+     * Write a String, as its number of UTF-8 bytes followed by the bytes.
+     *
+     * @param out the snapshot
+     * @param value the String
+     * @throws IOException
+     */
+    private static void writeString (DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a String.
+     *
+     * @param in the snapshot
+     * @return the String
+     * @throws IOException
+     */
+    private static String readString (TagInput in) throws IOException
+    {
+        int length = in.readInt();
+        if (length == 0)
+        {
+            return "";
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * The input from which the tags are read: a snapshot, or a spill file.
+     */
+    private interface TagInput
+    {
+        int readInt () throws IOException;
+
+        long readLong () throws IOException;
+
+        void readFully (byte[] bytes) throws IOException;
+    }
+
+    /**
+     * Reads a spill file, written by a DataOutputStream.
+     */
+    private static final class SpillInput implements TagInput
+    {
+        private final DataInputStream in;
+
+        SpillInput (DataInputStream in)
+        {
+            this.in = in;
+        }
+
+        public int readInt () throws IOException
+        {
+            return in.readInt();
+        }
+
+        public long readLong () throws IOException
+        {
+            return in.readLong();
+        }
+
+        public void readFully (byte[] bytes) throws IOException
+        {
+            in.readFully(bytes);
+        }
+    }
+
+    /**
+     * Reads a snapshot from its mapped regions, in the byte order of a DataOutputStream.
+     */
+    private static final class SnapshotInput implements TagInput
+    {
+        private final List<MappedByteBuffer> regions;
+        private int region = 0;
+
+        /**
+         * The region being read, read through ByteBuffer whose methods return a ByteBuffer on all the Java versions.
+         */
+        private ByteBuffer buffer;
+
+        SnapshotInput (List<MappedByteBuffer> regions)
+        {
+            this.regions = regions;
+            this.buffer = ((ByteBuffer)regions.get(0)).duplicate();
+        }
+
+        /**
+         * Move to the next region if the current one was read.
+         *
+         * @throws EOFException if all the regions were read
+         */
+        private void fill () throws EOFException
+        {
+            while (!buffer.hasRemaining())
+            {
+                if (++region == regions.size())
+                {
+                    throw new EOFException("The snapshot ended too soon");
+                }
+
+                buffer = ((ByteBuffer)regions.get(region)).duplicate();
+            }
+        }
+
+        public int readInt () throws IOException
+        {
+            if (buffer.remaining() >= 4)
+            {
+                return buffer.getInt();
+            }
+
+            byte[] bytes = new byte[4];
+            readFully(bytes);
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+
+        public long readLong () throws IOException
+        {
+            if (buffer.remaining() >= 8)
+            {
+                return buffer.getLong();
+            }
+
+            byte[] bytes = new byte[8];
+            readFully(bytes);
+            return ByteBuffer.wrap(bytes).getLong();
+        }
+
+        public void readFully (byte[] bytes) throws IOException
+        {
+            int length = 0;
+            while (length < bytes.length)
+            {
+                fill();
+
+                int nrOfBytes = Math.min(bytes.length - length, buffer.remaining());
+                buffer.get(bytes, length, nrOfBytes);
+                length += nrOfBytes;
+            }
+        }
+
+        /**
+         * Read a number of bytes, and get their CRC32 checksum.
+         *
+         * @param nrOfBytes the number of bytes
+         * @return the checksum of the bytes
+         * @throws IOException
+         */
+        long getChecksum (long nrOfBytes) throws IOException
+        {
+            CRC32 checksum = new CRC32();
+            byte[] bytes = new byte[1 << 16];
+
+            while (nrOfBytes > 0)
+            {
+                fill();
+
+                int length = (int)Math.min(Math.min(bytes.length, nrOfBytes), buffer.remaining());
+                buffer.get(bytes, 0, length);
+                checksum.update(bytes, 0, length);
+                nrOfBytes -= length;
+            }
+
+            return checksum.getValue();
+        }
+    }
+}
@@ -12,6 +12,7 @@ package com.github.alinaioanaflorea.xmldiff;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Properties;
 
 /**
  * This class produces an xmlDiff.xml file with the difference between two input xml files it receives, while keeping the mandatory tags specified in a third optional xml file passed as input.
@@ -23,6 +24,101 @@ public class XmlDiff
      */
     public static boolean isDebugBuild = false;
 
+    /**
+     * The variable keeps track if the input files are loaded through an org.w3c.dom Document instead of being streamed.
+     */
+    public static boolean isDomLoader = false;
+
+    /**
+     * The variable keeps track if the difference is printed only to the xmlDiff.xml file, without the standard output.
+     */
+    public static boolean isQuiet = false;
+
+    /**
+     * The variable keeps track if the input files are kept in arrays of primitives (CompactTags) instead of a Tag structure for each tag and attribute.
+     */
+    public static boolean isCompactModel = false;
+
+    /**
+     * The variable keeps track if the input files are read through memory mapping and their values are kept out of the heap, in a memory mapped file. It implies isCompactModel.
+     */
+    public static boolean isMappedInput = false;
+
+    /**
+     * The maximum number of differences of compared tags which are cached and reused for tags with the same content. 0 disables the cache.
+     */
+    public static int matchCacheSize = 0;
+
+    /**
+     * The variable keeps track if the tags with the same name are matched so that their total matching percentage is the highest, instead of greedily.
+     */
+    public static boolean isOptimalMatching = false;
+
+    /**
+     * The maximum number of tags with the same name, on each side, which are matched optimally. Above it the greedy matching is used.
+     */
+    public static int optimalMatchingLimit = 100;
+
+    /**
+     * The variable keeps track if the order of the sibling tags matters, in which case they are aligned in their order instead of being matched by their content.
+     */
+    public static boolean isOrderedMatching = false;
+
+    /**
+     * The number of threads comparing tags in parallel. 1 compares them sequentially.
+     */
+    public static int parallelism = 1;
+
+    /**
+     * The minimum number of sibling tags which are compared in parallel. Fewer siblings are compared sequentially.
+     */
+    public static int parallelThreshold = 16;
+
+    /**
+     * The number of worker threads diffing the pairs of xml files of a BatchXmlDiff manifest, or the requests of an XmlDiffDaemon.
+     */
+    public static int batchWorkers = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The loopback TCP port on which XmlDiffDaemon listens and to which XmlDiffClient connects.
+     */
+    public static int daemonPort = 7878;
+
+    /**
+     * The variable keeps track if XmlDiffClient sends the content of the files to the daemon, instead of their paths.
+     */
+    public static boolean isInlineRequest = false;
+
+    /**
+     * The variable keeps track if the DiffMetrics are collected, written to xmlDiffMetrics.json and registered with JMX.
+     */
+    public static boolean isMetrics = false;
+
+    /**
+     * The time in milliseconds given to the diff of the loaded tags, after which the remaining levels of tags are matched approximately. 0 disables the deadline.
+     */
+    public static int deadlineMillis = 0;
+
+    /**
+     * The maximum number of tag pairs compared in a level of sibling tags, above which the level is matched approximately. 0 disables the budget.
+     */
+    public static int comparisonBudget = 0;
+
+    /**
+     * The memory in MB with which the input files are diffed through partitions spilled to the disk by OutOfCoreXmlDiff, instead of being loaded. 0 loads them.
+     */
+    public static int memoryBudgetMB = 0;
+
+    /**
+     * The number of records, child tags of the root tag, within which RecordStreamXmlDiff matches a record while streaming the input files, instead of loading them. 0 loads them.
+     */
+    public static int recordWindow = 0;
+
+    /**
+     * The form of the edit script written to the xmlDiff.edits file instead of the xmlDiff.xml file, by EditScript: text or binary. Empty writes the xmlDiff.xml file.
+     */
+    public static String editScript = "";
+
     /**
      * Entry point to XmlDiff.
      *
@@ -34,6 +130,24 @@ public class XmlDiff
 
         try
         {
+            if (recordWindow > 0)
+            {
+                // Diff the records of the input files while they are read, and print their differences as soon as they are known
+                new RecordStreamXmlDiff(args.length == 3 ? args[2] : "", recordWindow).diff(args[0], args[1], "xmlDiff.xml");
+
+                if (isMetrics)
+                {
+                    DiffMetrics.getInstance().writeReport("xmlDiffMetrics.json");
+                }
+                return;
+            }
+
+            if (memoryBudgetMB > 0)
+            {
+                diffOutOfCore(args);
+                return;
+            }
+
             MatchXml matchXml = new MatchXml();
 
             List<Tag> mandatoryTags = new ArrayList<Tag>();
@@ -50,8 +164,31 @@ public class XmlDiff
             // Get the difference between the two tag lists, while keeping the mandatory tags
             List<Tag> tagDiff = matchXml.GetTagDiff (tags1, tags2, mandatoryTags);
             
-            // Print the difference to the standard output and to the xmlDiff.xml file
-            matchXml.print (tagDiff, "xmlDiff.xml");
+            if (!editScript.equals(""))
+            {
+                // Print the edits which turn the first file into the second one to the xmlDiff.edits file
+                EditScript.write (tags1, tagDiff, editScript, "xmlDiff.edits");
+            }
+            else
+            {
+                // Print the difference to the standard output and to the xmlDiff.xml file
+                matchXml.print (tagDiff, "xmlDiff.xml");
+            }
+
+            if (isDebugBuild && matchCacheSize > 0)
+            {
+                System.err.println ("Match cache: " + matchXml.getCacheHits() + " hits, " + matchXml.getCacheMisses() + " misses");
+            }
+
+            if (matchXml.getNrOfApproximateLevels() > 0)
+            {
+                System.err.println ("The difference is approximate: " + matchXml.getNrOfApproximateLevels() + " levels of tags exceeded the comparison budget or the deadline, their changed parent tags are marked with approx=\"y\"");
+            }
+
+            if (isMetrics)
+            {
+                DiffMetrics.getInstance().writeReport("xmlDiffMetrics.json");
+            }
         }
         catch (Throwable e)
         {
@@ -60,6 +197,33 @@ public class XmlDiff
         }
     }
 
+    /**
+     * Diff the input files through partitions spilled to the disk, with the memory bounded by memoryBudgetMB, and print the difference to the xmlDiff.xml file.
+     *
+     * @param args The input arguments for XmlDiff
+     * @throws Exception if a file can't be read or written
+     */
+    private static void diffOutOfCore(String[] args) throws Exception
+    {
+        OutOfCoreXmlDiff outOfCoreXmlDiff = new OutOfCoreXmlDiff(args.length == 3 ? args[2] : "", memoryBudgetMB * 1024L * 1024L);
+        outOfCoreXmlDiff.diff(args[0], args[1], "xmlDiff.xml");
+
+        if (outOfCoreXmlDiff.getNrOfApproximateLevels() > 0)
+        {
+            System.err.println ("The difference is approximate: " + outOfCoreXmlDiff.getNrOfApproximateLevels() + " levels of tags exceeded the comparison budget or the deadline, their changed parent tags are marked with approx=\"y\"");
+        }
+
+        if (outOfCoreXmlDiff.getNrOfApproximatePartitions() > 0)
+        {
+            System.err.println ("The difference is approximate: " + outOfCoreXmlDiff.getNrOfApproximatePartitions() + " partitions of the root's child tags didn't fit in the memory budget and were split by the content of their tags without a key, the root tag is marked with approx=\"y\"");
+        }
+
+        if (isMetrics)
+        {
+            DiffMetrics.getInstance().writeReport("xmlDiffMetrics.json");
+        }
+    }
+
     /**
      * Process the input arguments received by XmlDiff
      *
@@ -67,7 +231,7 @@ public class XmlDiff
      */
     static void processInputArgs(String[] args)
     {
-        isDebugBuild = Boolean.getBoolean("xmlDiff.isDebugBuild");
+        processProperties();
 
         if (args.length < 2 || args.length > 3)
         {
@@ -78,4 +242,97 @@ public class XmlDiff
             System.exit(1);
         }
     }
+
+    /**
+     * Read the options of XmlDiff from the xmlDiff.* system properties
+     */
+    static void processProperties()
+    {
+        processProperties(System.getProperties());
+    }
+
+    /**
+     * Read the options of XmlDiff from the xmlDiff.* properties
+     *
+     * @param properties the properties with the options, the missing ones get their default value
+     */
+    static void processProperties(Properties properties)
+    {
+        isDebugBuild = getBoolean(properties, "xmlDiff.isDebugBuild");
+        isDomLoader = getBoolean(properties, "xmlDiff.isDomLoader");
+        isQuiet = getBoolean(properties, "xmlDiff.isQuiet");
+        isCompactModel = getBoolean(properties, "xmlDiff.isCompactModel");
+        isMappedInput = getBoolean(properties, "xmlDiff.isMappedInput");
+        matchCacheSize = getInteger(properties, "xmlDiff.matchCacheSize", 0);
+        isOptimalMatching = getBoolean(properties, "xmlDiff.isOptimalMatching");
+        optimalMatchingLimit = getInteger(properties, "xmlDiff.optimalMatchingLimit", 100);
+        isOrderedMatching = getBoolean(properties, "xmlDiff.isOrderedMatching");
+        parallelism = getInteger(properties, "xmlDiff.parallelism", 1);
+        parallelThreshold = getInteger(properties, "xmlDiff.parallelThreshold", 16);
+        batchWorkers = getInteger(properties, "xmlDiff.batchWorkers", Runtime.getRuntime().availableProcessors());
+        daemonPort = getInteger(properties, "xmlDiff.daemonPort", 7878);
+        isInlineRequest = getBoolean(properties, "xmlDiff.isInlineRequest");
+        isMetrics = getBoolean(properties, "xmlDiff.isMetrics");
+        deadlineMillis = getInteger(properties, "xmlDiff.deadlineMillis", 0);
+        comparisonBudget = getInteger(properties, "xmlDiff.comparisonBudget", 0);
+        memoryBudgetMB = getInteger(properties, "xmlDiff.memoryBudgetMB", 0);
+        recordWindow = getInteger(properties, "xmlDiff.recordWindow", 0);
+        editScript = getString(properties, "xmlDiff.editScript", "");
+
+        if (isMetrics)
+        {
+            DiffMetrics.register();
+        }
+    }
+
+    /**
+     * Get a boolean option, the same way as Boolean.getBoolean.
+     *
+     * @param properties the properties with the options
+     * @param name the name of the option
+     * @return true if the option is "true", ignoring the case, else false
+     */
+    private static boolean getBoolean(Properties properties, String name)
+    {
+        return Boolean.parseBoolean(properties.getProperty(name));
+    }
+
+    /**
+     * Get a String option.
+     *
+     * @param properties the properties with the options
+     * @param name the name of the option
+     * @param defaultValue the value of a missing option
+     * @return the value of the option
+     */
+    private static String getString(Properties properties, String name, String defaultValue)
+    {
+        return properties.getProperty(name, defaultValue);
+    }
+
+    /**
+     * Get an integer option, the same way as Integer.getInteger.
+     *
+     * @param properties the properties with the options
+     * @param name the name of the option
+     * @param defaultValue the value of a missing or invalid option
+     * @return the value of the option
+     */
+    private static int getInteger(Properties properties, String name, int defaultValue)
+    {
+        String value = properties.getProperty(name);
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Integer.decode(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return defaultValue;
+        }
+    }
 }
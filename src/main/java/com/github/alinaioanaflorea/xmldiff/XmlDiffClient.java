@@ -0,0 +1,254 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+import java.io.File;
+import java.io.InputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Reader;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * This class sends a diff to an XmlDiffDaemon, with the same arguments and options as XmlDiff, and prints its difference the same way.
+ * If no daemon listens on xmlDiff.daemonPort, or an option isn't supported by the daemon, the files are diffed by this JVM.
+ */
+public class XmlDiffClient
+{
+    /**
+     * The options of the client, which are not sent to the daemon.
+     */
+    private static final List<String> CLIENT_OPTIONS = Arrays.asList("xmlDiff.daemonPort", "xmlDiff.isQuiet", "xmlDiff.isInlineRequest");
+
+    /**
+     * Entry point to the client.
+     *
+     * @param args The input arguments for XmlDiff
+     */
+    public static void main(String[] args)
+    {
+        XmlDiff.processInputArgs(args);
+
+        String unsupportedOption = XmlDiffDaemon.getUnsupportedOption();
+        if (unsupportedOption != null)
+        {
+            System.err.println ("The XmlDiff daemon doesn't support " + unsupportedOption + ", diffing without the daemon");
+            XmlDiff.main(args);
+            return;
+        }
+
+        Socket socket;
+        try
+        {
+            socket = new Socket(InetAddress.getByName(null), XmlDiff.daemonPort);
+        }
+        catch (ConnectException e)
+        {
+            System.err.println ("No XmlDiff daemon listens on port " + XmlDiff.daemonPort + ", diffing without it");
+            XmlDiff.main(args);
+            return;
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+            return;
+        }
+
+        try
+        {
+            try
+            {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                writeRequest(out, args);
+                out.flush();
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                int status = in.read();
+
+                if (status == XmlDiffDaemon.UNSUPPORTED)
+                {
+                    unsupportedOption = in.readUTF();
+                }
+                else if (status != XmlDiffDaemon.OK)
+                {
+                    Writer err = new OutputStreamWriter(System.err);
+                    copy(new InputStreamReader(in, "UTF8"), err, null);
+                    err.flush();
+
+                    System.exit(1);
+                }
+
+                else
+                {
+                    // The difference is read whole before printing, so a response cut short fails without printing a partial difference
+                    ByteArrayOutputStream difference = new ByteArrayOutputStream();
+                    XmlDiffDaemon.copy(in, difference, in.readLong());
+
+                    printDiff(new InputStreamReader(new ByteArrayInputStream(difference.toByteArray()), "UTF8"), "xmlDiff.xml");
+                }
+            }
+            finally
+            {
+                socket.close();
+            }
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        if (unsupportedOption != null)
+        {
+            // The daemon doesn't support an option of the request
+            System.err.println ("The XmlDiff daemon doesn't support " + unsupportedOption + ", diffing without the daemon");
+            XmlDiff.main(args);
+        }
+    }
+
+    /**
+     * Write the request of a diff.
+     *
+     * @param out the stream to the daemon
+     * @param args The input arguments for XmlDiff
+     * @throws IOException
+     */
+    private static void writeRequest (DataOutputStream out, String[] args) throws IOException
+    {
+        out.writeUTF(XmlDiffDaemon.PROTOCOL);
+
+        List<String> options = new ArrayList<String>();
+        for (String name : System.getProperties().stringPropertyNames())
+        {
+            if (name.startsWith("xmlDiff.") && !CLIENT_OPTIONS.contains(name))
+            {
+                options.add(name);
+            }
+        }
+
+        out.writeInt(options.size());
+        for (String name : options)
+        {
+            out.writeUTF(name);
+            out.writeUTF(System.getProperty(name));
+        }
+
+        writeFile(out, args[0]);
+        writeFile(out, args[1]);
+        writeFile(out, args.length == 3 ? args[2] : null);
+    }
+
+    /**
+     * Write a file of the request: its absolute path, or its content with -DxmlDiff.isInlineRequest=true.
+     *
+     * @param out the stream to the daemon
+     * @param filePath the path to the file, or null if there is none
+     * @throws IOException
+     */
+    private static void writeFile (DataOutputStream out, String filePath) throws IOException
+    {
+        if (filePath == null)
+        {
+            out.writeByte(XmlDiffDaemon.NONE);
+            return;
+        }
+
+        File file = new File(filePath).getAbsoluteFile();
+
+        if (!XmlDiff.isInlineRequest)
+        {
+            out.writeByte(XmlDiffDaemon.PATH);
+            out.writeUTF(file.getPath());
+            return;
+        }
+
+        out.writeByte(XmlDiffDaemon.INLINE);
+        out.writeLong(file.length());
+
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            XmlDiffDaemon.copy(in, out, file.length());
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Print the difference sent by the daemon to the standard output and to a file, the same way as ProcessXml.print.
+     *
+     * @param in the difference
+     * @param fileName the name of the file in which the difference is printed
+     * @throws IOException
+     */
+    private static void printDiff (Reader in, String fileName) throws IOException
+    {
+        Writer stdout = XmlDiff.isQuiet ? null : new BufferedWriter(new OutputStreamWriter(System.out));
+        Writer file = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF8"));
+
+        try
+        {
+            copy(in, file, stdout);
+
+            if (stdout != null)
+            {
+                stdout.write(System.getProperty("line.separator"));
+                stdout.flush();
+            }
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Copy the content of a Reader to one or two Writers.
+     *
+     * @param in the Reader to copy from
+     * @param out1 the Writer to copy to
+     * @param out2 the other Writer to copy to, or null
+     * @throws IOException
+     */
+    private static void copy (Reader in, Writer out1, Writer out2) throws IOException
+    {
+        char[] buffer = new char[8192];
+
+        int read;
+        while ((read = in.read(buffer)) != -1)
+        {
+            out1.write(buffer, 0, read);
+            if (out2 != null)
+            {
+                out2.write(buffer, 0, read);
+            }
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/*
+Copyright (C) 2012 Alina Ioana Florea (alina.ioana.florea@gmail.com)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+http://www.opensource.org/licenses/mit-license.php
+ */
+
+package com.github.alinaioanaflorea.xmldiff;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.Writer;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.PrintWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * This class is a long running XmlDiff, which diffs the requests of XmlDiffClient so that they don't pay for the JVM startup and a cold MatchXml.
+ * It listens on the loopback TCP port xmlDiff.daemonPort, and diffs the requests on xmlDiff.batchWorkers threads, each keeping its MatchXml.
+ * The mandatory tags of a file are read once, and read again only if the file was changed.
+ *
+ * A request has the xmlDiff.* options of the client, which are applied on top of the daemon's own options.
+ * The options are shared by all the diffs, so the requests with the current options are diffed at the same time, and a request with other options waits for them to end.
+ * The files are diffed in memory and only the xml difference is sent back, so the daemon doesn't start with an option it doesn't support (see getUnsupportedOption),
+ * and a request with such an option is answered with UNSUPPORTED, so that XmlDiffClient diffs it without the daemon.
+ *
+ * The request is written with a DataOutputStream:
+ * - the protocol: UTF "XMLDIFF/2"
+ * - the options: int the number of options, then UTF name and UTF value for each option
+ * - the old, new and mandatory tags files, each one as: byte NONE, or byte PATH and UTF path, or byte INLINE, long the number of bytes and the bytes of the xml
+ * The response is: byte OK, long the number of bytes and the difference (as written to xmlDiff.xml), or byte FAILED and the error until the end of the stream, both as UTF-8 text,
+ * or byte UNSUPPORTED and UTF the name of the option the daemon doesn't support.
+ * The difference is printed before the response is started, so a diff which fails while printing is answered with FAILED, and a response cut short is detected by its length.
+ */
+public class XmlDiffDaemon
+{
+    static final String PROTOCOL = "XMLDIFF/2";
+
+    static final byte NONE = 0;
+    static final byte PATH = 1;
+    static final byte INLINE = 2;
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+    static final byte UNSUPPORTED = 2;
+
+    /**
+     * The time after which a client which doesn't send its request is dropped.
+     */
+    private static final int READ_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * The MatchXml of each worker thread, kept for all the requests it diffs.
+     */
+    private static final ThreadLocal<MatchXml> matchXmls = new ThreadLocal<MatchXml>()
+    {
+        @Override
+        protected MatchXml initialValue ()
+        {
+            return new MatchXml();
+        }
+    };
+
+    /**
+     * The daemon's own options, given when it was started.
+     */
+    private static final Map<String, String> daemonOptions = new TreeMap<String, String>();
+
+    /**
+     * The options of the running diffs, guarded by optionsLock: the diffs hold its read lock, and a request with other options takes its write lock to change them.
+     */
+    private static Map<String, String> currentOptions;
+    private static final ReentrantReadWriteLock optionsLock = new ReentrantReadWriteLock();
+
+    /**
+     * Entry point to the daemon.
+     *
+     * @param args no arguments, the options are the xmlDiff.* system properties
+     */
+    public static void main(String[] args)
+    {
+        XmlDiff.processProperties();
+
+        String unsupportedOption = getUnsupportedOption();
+        if (unsupportedOption != null)
+        {
+            System.out.println ("The XmlDiff daemon doesn't support " + unsupportedOption + ", as it diffs the files in memory and sends back the xml difference");
+            System.exit(1);
+        }
+
+        for (String name : System.getProperties().stringPropertyNames())
+        {
+            if (name.startsWith("xmlDiff."))
+            {
+                daemonOptions.put(name, System.getProperty(name));
+            }
+        }
+        currentOptions = daemonOptions;
+
+        try
+        {
+            ServerSocket serverSocket = new ServerSocket(XmlDiff.daemonPort, 50, InetAddress.getByName(null)); // Only the loopback address
+            ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, XmlDiff.batchWorkers));
+
+            System.out.println ("XmlDiff daemon listening on " + serverSocket.getLocalSocketAddress() + " with " + Math.max(1, XmlDiff.batchWorkers) + " workers");
+
+            while (true)
+            {
+                final Socket socket = serverSocket.accept();
+
+                workers.submit(new Runnable()
+                {
+                    public void run ()
+                    {
+                        handle(socket);
+                    }
+                });
+            }
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Diff a request, and write its response.
+     *
+     * @param socket the connection of the client
+     */
+    private static void handle (Socket socket)
+    {
+        List<File> inlineFiles = new ArrayList<File>();
+
+        try
+        {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            MatchXml matchXml = matchXmls.get();
+            byte[] difference;
+
+            try
+            {
+                if (!in.readUTF().equals(PROTOCOL))
+                {
+                    throw new IOException("Not an XmlDiff request");
+                }
+
+                Map<String, String> options = new TreeMap<String, String>(daemonOptions);
+                int nrOfOptions = in.readInt();
+                for (int i = 0; i < nrOfOptions; i++)
+                {
+                    options.put(in.readUTF(), in.readUTF());
+                }
+
+                String oldFile = readFile(in, inlineFiles);
+                String newFile = readFile(in, inlineFiles);
+                String mandatoryTagsFile = readFile(in, inlineFiles);
+
+                if (oldFile.isEmpty() || newFile.isEmpty())
+                {
+                    throw new IOException("The request must have the old and the new xml");
+                }
+
+                // The options are also read while printing, so the difference is printed before they can be changed
+                lockOptions(options);
+                try
+                {
+                    String unsupportedOption = getUnsupportedOption();
+                    if (unsupportedOption != null)
+                    {
+                        out.write(UNSUPPORTED);
+                        out.writeUTF(unsupportedOption);
+                        out.flush();
+                        return;
+                    }
+
+                    MandatoryTags mandatoryTags = isInline(mandatoryTagsFile, inlineFiles) ? MandatoryTagsCache.read(matchXml, mandatoryTagsFile) : MandatoryTagsCache.get(matchXml, mandatoryTagsFile);
+
+                    List<Tag> tags1 = matchXml.getTags(oldFile);
+                    List<Tag> tags2 = matchXml.getTags(newFile);
+
+                    List<Tag> tagDiff = matchXml.GetTagDiff(tags1, tags2, mandatoryTags);
+
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(bytes, "UTF8"));
+                    matchXml.print(tagDiff, writer);
+                    writer.flush();
+
+                    difference = bytes.toByteArray();
+                }
+                finally
+                {
+                    optionsLock.readLock().unlock();
+                }
+            }
+            catch (Throwable e)
+            {
+                StringWriter stackTrace = new StringWriter();
+                e.printStackTrace(new PrintWriter(stackTrace));
+
+                out.write(FAILED);
+
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF8"));
+                writer.write(stackTrace.toString());
+                writer.flush();
+                return;
+            }
+
+            out.write(OK);
+            out.writeLong(difference.length);
+            out.write(difference);
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            // The client is gone, or its connection failed: there is no one to respond to, so the failure is only logged
+            System.err.println ("XmlDiff daemon could not respond to " + socket.getRemoteSocketAddress() + ": " + e);
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                // Already closed
+            }
+
+            for (File file : inlineFiles)
+            {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Take the read lock of the options, after applying the options of a request if they are not the current ones.
+     *
+     * @param options the options of the request
+     */
+    private static void lockOptions (Map<String, String> options)
+    {
+        optionsLock.readLock().lock();
+        if (options.equals(currentOptions))
+        {
+            return;
+        }
+
+        // Wait for the running diffs to end, change the options, then keep only the read lock
+        optionsLock.readLock().unlock();
+        optionsLock.writeLock().lock();
+        try
+        {
+            if (!options.equals(currentOptions))
+            {
+                Properties properties = new Properties();
+                properties.putAll(options);
+                XmlDiff.processProperties(properties);
+
+                currentOptions = options;
+            }
+
+            optionsLock.readLock().lock();
+        }
+        finally
+        {
+            optionsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get an option of the current options which the daemon doesn't support: the daemon only diffs the files in memory, and only answers with the xml difference.
+     *
+     * @return the name of the option, or null if there is none
+     */
+    static String getUnsupportedOption ()
+    {
+        if (!XmlDiff.editScript.equals(""))
+        {
+            return "xmlDiff.editScript";
+        }
+
+        if (XmlDiff.recordWindow > 0)
+        {
+            return "xmlDiff.recordWindow";
+        }
+
+        if (XmlDiff.memoryBudgetMB > 0)
+        {
+            return "xmlDiff.memoryBudgetMB";
+        }
+
+        return null;
+    }
+
+    /**
+     * Read a file of a request.
+     *
+     * @param in the request
+     * @param inlineFiles the temporary files of the inline xml of the request, to which an inline xml is added
+     * @return the path of the file, or an empty string if there is none
+     * @throws IOException
+     */
+    private static String readFile (DataInputStream in, List<File> inlineFiles) throws IOException
+    {
+        byte kind = in.readByte();
+
+        if (kind == NONE)
+        {
+            return "";
+        }
+
+        if (kind == PATH)
+        {
+            return in.readUTF();
+        }
+
+        if (kind != INLINE)
+        {
+            throw new IOException("Not a valid file in the request: " + kind);
+        }
+
+        File file = File.createTempFile("xmlDiff", ".xml");
+        inlineFiles.add(file);
+
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            copy(in, out, in.readLong());
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return file.getPath();
+    }
+
+    /**
+     * Check if a file of a request is an inline xml.
+     *
+     * @param filePath the path of the file
+     * @param inlineFiles the temporary files of the inline xml of the request
+     * @return true if the file holds an inline xml, else false
+     */
+    private static boolean isInline (String filePath, List<File> inlineFiles)
+    {
+        for (File file : inlineFiles)
+        {
+            if (file.getPath().equals(filePath))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Copy a number of bytes from a stream to another.
+     *
+     * @param in the stream to copy from
+     * @param out the stream to copy to
+     * @param nrOfBytes the number of bytes to copy
+     * @throws IOException if the input stream ends before
+     */
+    static void copy (InputStream in, OutputStream out, long nrOfBytes) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+
+        while (nrOfBytes > 0)
+        {
+            int read = in.read(buffer, 0, (int)Math.min(buffer.length, nrOfBytes));
+            if (read == -1)
+            {
+                throw new IOException("The stream ended " + nrOfBytes + " bytes too soon");
+            }
+
+            out.write(buffer, 0, read);
+            nrOfBytes -= read;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+#! /bin/bash
+#
+# To run this script you may need to do: chmod u+x /pathTo/runBatchXmlDiff.sh
+################################################################################
+
+cd "`dirname "$0"`" 
+
+java -DxmlDiff.batchWorkers=2 -cp ./../../xmlDiff.jar com.github.alinaioanaflorea.xmldiff.BatchXmlDiff ./input/batch.tsv
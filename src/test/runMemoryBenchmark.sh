@@ -0,0 +1,8 @@
+#! /bin/bash
+#
+# To run this script you may need to do: chmod u+x /pathTo/runMemoryBenchmark.sh
+################################################################################
+
+cd "`dirname "$0"`" 
+
+java -Xmx2g -cp ./../../xmlDiff.jar com.github.alinaioanaflorea.xmldiff.MemoryBenchmark 200000